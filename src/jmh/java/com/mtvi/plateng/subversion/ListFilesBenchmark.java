@@ -0,0 +1,102 @@
+package com.mtvi.plateng.subversion;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.tools.ant.DirectoryScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ListFiles#invoke} over a generated build tree, walking it each time
+ * and answered from a warm directory index, with the Ant scanner Jenkins
+ * itself uses as the baseline. The tree looks like a multi module build:
+ * modules holding sources and a target directory, where the pattern matches
+ * the jars.
+ *
+ * @author sekfung
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ListFilesBenchmark {
+    static final String INCLUDES = "**/target/*.jar";
+    static final String EXCLUDES = "**/*-sources.jar";
+
+    @Param({"20", "200"})
+    public int modules;
+
+    @Param({"50"})
+    public int filesPerDir;
+
+    private File root;
+    private File indexDir;
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        root = Files.createTempDirectory("svnpublisher-scan").toFile();
+        indexDir = Files.createTempDirectory("svnpublisher-index").toFile();
+        for (int m = 0; m < modules; m++) {
+            File module = new File(root, "group-" + (m % 10) + "/module-" + m);
+            createFiles(new File(module, "src/main/java/com/example"), "Source", ".java");
+            createFiles(new File(module, "target/classes/com/example"), "Source", ".class");
+            createFiles(new File(module, "target"), "module-" + m + "-part", ".jar");
+            createFiles(new File(module, "target"), "module-" + m + "-part", "-sources.jar");
+        }
+        // the first scan fills the index, the benchmark measures the rescans
+        new ListFiles(INCLUDES, EXCLUDES, true, true, true, indexDir.getPath()).invoke(root, null);
+    }
+
+    private void createFiles(File dir, String prefix, String suffix) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("mkdir file failed: " + dir);
+        }
+        for (int i = 0; i < filesPerDir; i++) {
+            Files.write(new File(dir, prefix + i + suffix).toPath(), new byte[]{(byte) i});
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(root);
+        FileUtils.deleteDirectory(indexDir);
+    }
+
+    @Benchmark
+    public Map<String, String> listFiles() throws IOException, InterruptedException {
+        return new ListFiles(INCLUDES, EXCLUDES, true, true, true, null).invoke(root, null);
+    }
+
+    @Benchmark
+    public Map<String, String> listFilesIndexed() throws IOException, InterruptedException {
+        return new ListFiles(INCLUDES, EXCLUDES, true, true, true, indexDir.getPath()).invoke(root, null);
+    }
+
+    @Benchmark
+    public String[] directoryScanner() {
+        DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(root);
+        scanner.setIncludes(new String[]{INCLUDES});
+        scanner.setExcludes(new String[]{EXCLUDES});
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        return scanner.getIncludedFiles();
+    }
+}
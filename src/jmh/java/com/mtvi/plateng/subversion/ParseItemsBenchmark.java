@@ -0,0 +1,63 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.EnvVars;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Utils#parseAndReplaceEnvVars} over the items of a step, copied first
+ * as {@code SVNPublisher.perform} does so every invocation has tokens left to
+ * expand.
+ *
+ * @author sekfung
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ParseItemsBenchmark {
+    @Param({"10", "100", "1000"})
+    public int items;
+
+    @Param({"100"})
+    public int variables;
+
+    private EnvVars vars;
+    private List<ImportItem> configured;
+
+    @Setup
+    public void setUp() {
+        vars = ReplaceVarsBenchmark.environment(variables);
+        configured = new ArrayList<>();
+        for (int i = 0; i < items; i++) {
+            ImportItem item = new ImportItem("**/module-" + i + "/*.jar", "releases/${JOB_NAME}/${BUILD_NUMBER}/module-" + i,
+                    "build/module-" + i, null, "BRANCH_NAME=main");
+            item.setExcludes("**/*-sources.jar");
+            configured.add(item);
+        }
+    }
+
+    @Benchmark
+    public List<ImportItem> parseAndReplaceEnvVars() {
+        List<ImportItem> copies = new ArrayList<>(configured.size());
+        for (ImportItem item : configured) {
+            copies.add(new ImportItem(item));
+        }
+        return Utils.parseAndReplaceEnvVars(vars, copies);
+    }
+}
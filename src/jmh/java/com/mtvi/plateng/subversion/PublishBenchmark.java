@@ -0,0 +1,354 @@
+package com.mtvi.plateng.subversion;
+
+import com.cloudbees.plugins.credentials.CredentialsScope;
+import com.cloudbees.plugins.credentials.SystemCredentialsProvider;
+import com.cloudbees.plugins.credentials.impl.UsernamePasswordCredentialsImpl;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import jenkins.benchmark.jmh.JmhBenchmarkState;
+import jenkins.model.Jenkins;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.runner.IterationType;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole publishes through {@link SVNPublisher#perform}, run by freestyle builds
+ * of a Jenkins started by the test harness, into a local FSFS repository
+ * seeded with a history. The builds run on the controller, so the agent side
+ * of the publish runs in the same JVM.
+ * <p>
+ * The scenarios:
+ * <ul>
+ * <li>{@code cold}: every build publishes to a new directory, without a kept
+ * working copy or scan index;</li>
+ * <li>{@code warm}: a tenth of the artifacts changed since the last build,
+ * published over them with the working copy and index kept;</li>
+ * <li>{@code unchanged}: the same, with nothing changed;</li>
+ * <li>{@code large}: the artifacts and one large file with its first megabyte
+ * changed, large enough to be streamed.</li>
+ * </ul>
+ * JMH scores the wall time of a build. The bytes the repository grew by, the
+ * peak heap, and the files matched per second of each measured build are
+ * written to {@code publish-<scenario>-<mode>.json}, in the directory of the
+ * {@code benchmark.reportDir} system property, {@code target} by default.
+ * The peak heap is the sum of the peaks of the heap pools during the build,
+ * an upper bound that includes Jenkins itself.
+ *
+ * @author sekfung
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PublishBenchmark {
+    private static final String CREDENTIALS_ID = "publish-benchmark";
+
+    public static class PublishState extends JmhBenchmarkState {
+        @Param({"cold", "warm", "unchanged", "large"})
+        public String scenario;
+
+        @Param({Constants.WORKING_COPY_MODE, Constants.DIRECT_MODE})
+        public String mode;
+
+        @Param({"20"})
+        public int dirs;
+
+        @Param({"50"})
+        public int filesPerDir;
+
+        @Param({"16"})
+        public int fileSizeKb;
+
+        /**
+         * The revisions seeded before the benchmark, each adding
+         * {@code filesPerDir} files to one of the directories.
+         */
+        @Param({"100"})
+        public int historyRevisions;
+
+        @Param({"256"})
+        public int largeFileMb;
+
+        private final Random random = new Random(42);
+        private final List<Sample> samples = new ArrayList<>();
+        private File base;
+        private File repositoryDir;
+        private File workspace;
+        private File artifacts;
+        private FreeStyleProject project;
+        private int changes;
+        private long repositorySize;
+        private long start;
+        private boolean measuring;
+
+        @Override
+        public void setup() throws Exception {
+            FSRepositoryFactory.setup();
+            base = Files.createTempDirectory("svnpublisher-publish").toFile();
+            repositoryDir = new File(base, "repository");
+            SVNURL url = SVNRepositoryFactory.createLocalRepository(repositoryDir, true, false);
+            seed(url);
+
+            workspace = new File(base, "workspace");
+            artifacts = new File(workspace, "artifacts");
+            for (int d = 0; d < dirs; d++) {
+                for (int i = 0; i < filesPerDir; i++) {
+                    write(artifact(d, i), fileSizeKb * 1024);
+                }
+            }
+            if ("large".equals(scenario)) {
+                write(new File(artifacts, "large/payload.bin"), largeFileMb * 1024L * 1024L);
+            }
+
+            SystemCredentialsProvider.getInstance().getCredentials().add(
+                    new UsernamePasswordCredentialsImpl(CredentialsScope.GLOBAL, CREDENTIALS_ID, null, "benchmark", "benchmark"));
+            SystemCredentialsProvider.getInstance().save();
+
+            // every cold build gets a directory of its own, the others publish over the last one
+            String target = "cold".equals(scenario) ? "releases/${BUILD_NUMBER}" : "releases/current";
+            ImportItem item = new ImportItem("**/*", target, "artifacts", null, "");
+            SVNPublisher publisher = new SVNPublisher(url.toString(), CREDENTIALS_ID, "publish ${BUILD_NUMBER}",
+                    Constants.ALWAYS_COMMIT, new ArrayList<>(Collections.singletonList(item)));
+            publisher.setMode(mode);
+            publisher.setKeepWorkingCopy(!"cold".equals(scenario));
+            if ("large".equals(scenario)) {
+                publisher.setStreamingThreshold(Math.max(1, largeFileMb / 2));
+            }
+            project = Jenkins.get().createProject(FreeStyleProject.class, "publish-" + scenario + "-" + mode);
+            project.setCustomWorkspace(workspace.getAbsolutePath());
+            project.getPublishersList().add(publisher);
+            if (!"cold".equals(scenario)) {
+                // the first publish adds everything, the measured ones go over it
+                publish();
+            }
+        }
+
+        @Override
+        public void tearDown() {
+            try {
+                report();
+                FileUtils.deleteDirectory(base);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void iteration(IterationParams params) {
+            measuring = params.getType() == IterationType.MEASUREMENT;
+        }
+
+        /**
+         * Change what the scenario changes, then take the measures the build is compared against.
+         */
+        @Setup(Level.Invocation)
+        public void prepare() throws IOException {
+            changes = 0;
+            switch (scenario) {
+                case "cold":
+                    // the scan index lives in the temporary directory of the workspace
+                    FileUtils.deleteDirectory(new File(workspace.getPath() + "@tmp"));
+                    changes = dirs * filesPerDir;
+                    break;
+                case "warm":
+                    for (int d = 0; d < dirs; d++) {
+                        for (int i = 0; i < filesPerDir; i += 10) {
+                            write(artifact(d, i), fileSizeKb * 1024);
+                            changes++;
+                        }
+                    }
+                    break;
+                case "large":
+                    try (RandomAccessFile large = new RandomAccessFile(new File(artifacts, "large/payload.bin"), "rw")) {
+                        large.write(bytes(1024 * 1024));
+                    }
+                    changes = 1;
+                    break;
+                default:
+                    break;
+            }
+            repositorySize = FileUtils.sizeOfDirectory(repositoryDir);
+            System.gc();
+            for (MemoryPoolMXBean pool : heapPools()) {
+                pool.resetPeakUsage();
+            }
+            start = System.nanoTime();
+        }
+
+        @TearDown(Level.Invocation)
+        public void measure() {
+            if (!measuring) {
+                return;
+            }
+            long nanos = System.nanoTime() - start;
+            long heapPeak = 0;
+            for (MemoryPoolMXBean pool : heapPools()) {
+                heapPeak += pool.getPeakUsage().getUsed();
+            }
+            samples.add(new Sample(nanos, FileUtils.sizeOfDirectory(repositoryDir) - repositorySize, heapPeak, changes));
+        }
+
+        FreeStyleBuild publish() throws Exception {
+            FreeStyleBuild build = project.scheduleBuild2(0).get();
+            if (build.getResult() != Result.SUCCESS) {
+                throw new IllegalStateException("publish failed:\n" + String.join("\n", build.getLog(100)));
+            }
+            return build;
+        }
+
+        private File artifact(int dir, int file) {
+            return new File(artifacts, "dir-" + dir + "/file-" + dir + "-" + file + ".bin");
+        }
+
+        private void write(File file, long size) throws IOException {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                for (long written = 0; written < size; written += 1024 * 1024) {
+                    out.write(bytes((int) Math.min(1024 * 1024, size - written)));
+                }
+            }
+        }
+
+        private byte[] bytes(int size) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            return bytes;
+        }
+
+        /**
+         * Commit the history: the directories first, then per revision a new
+         * directory of files under one of them.
+         */
+        private void seed(SVNURL url) throws SVNException {
+            SVNRepository repository = SVNRepositoryFactory.create(url);
+            try {
+                SVNDeltaGenerator generator = new SVNDeltaGenerator();
+                ISVNEditor editor = repository.getCommitEditor("seed directories", null);
+                editor.openRoot(-1);
+                editor.addDir("history", null, -1);
+                for (int d = 0; d < dirs; d++) {
+                    editor.addDir("history/dir-" + d, null, -1);
+                    editor.closeDir();
+                }
+                editor.closeDir();
+                editor.addDir("releases", null, -1);
+                editor.closeDir();
+                editor.closeDir();
+                editor.closeEdit();
+                for (int r = 0; r < historyRevisions; r++) {
+                    String dir = "history/dir-" + (r % dirs);
+                    String revDir = dir + "/rev-" + r;
+                    editor = repository.getCommitEditor("seed revision " + r, null);
+                    editor.openRoot(-1);
+                    editor.openDir("history", -1);
+                    editor.openDir(dir, -1);
+                    editor.addDir(revDir, null, -1);
+                    for (int i = 0; i < filesPerDir; i++) {
+                        String path = revDir + "/file-" + i + ".bin";
+                        editor.addFile(path, null, -1);
+                        editor.applyTextDelta(path, null);
+                        String checksum = generator.sendDelta(path, new ByteArrayInputStream(bytes(fileSizeKb * 1024)), editor, true);
+                        editor.closeFile(path, checksum);
+                    }
+                    editor.closeDir();
+                    editor.closeDir();
+                    editor.closeDir();
+                    editor.closeDir();
+                    editor.closeEdit();
+                }
+            } finally {
+                repository.closeSession();
+            }
+        }
+
+        private static List<MemoryPoolMXBean> heapPools() {
+            List<MemoryPoolMXBean> pools = new ArrayList<>();
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    pools.add(pool);
+                }
+            }
+            return pools;
+        }
+
+        /**
+         * Write the samples of the measurement iterations as JSON.
+         */
+        private void report() throws IOException {
+            int files = dirs * filesPerDir + ("large".equals(scenario) ? 1 : 0);
+            StringBuilder json = new StringBuilder();
+            json.append("{\n  \"scenario\": \"").append(scenario).append("\",\n")
+                    .append("  \"mode\": \"").append(mode).append("\",\n")
+                    .append("  \"files\": ").append(files).append(",\n")
+                    .append("  \"samples\": [");
+            for (int i = 0; i < samples.size(); i++) {
+                Sample s = samples.get(i);
+                double seconds = s.nanos / 1e9;
+                json.append(i == 0 ? "\n" : ",\n")
+                        .append(String.format(Locale.ROOT,
+                                "    {\"wallMillis\": %.1f, \"bytesWritten\": %d, \"heapPeak\": %d, \"changedFiles\": %d, \"filesPerSecond\": %.1f}",
+                                s.nanos / 1e6, s.bytesWritten, s.heapPeak, s.changedFiles, seconds > 0 ? files / seconds : 0));
+            }
+            json.append("\n  ]\n}\n");
+            File dir = new File(System.getProperty("benchmark.reportDir", "target"));
+            Files.createDirectories(dir.toPath());
+            Files.write(new File(dir, "publish-" + scenario + "-" + mode + ".json").toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class Sample {
+        private final long nanos;
+        private final long bytesWritten;
+        private final long heapPeak;
+        private final int changedFiles;
+
+        Sample(long nanos, long bytesWritten, long heapPeak, int changedFiles) {
+            this.nanos = nanos;
+            this.bytesWritten = bytesWritten;
+            this.heapPeak = heapPeak;
+            this.changedFiles = changedFiles;
+        }
+    }
+
+    @Benchmark
+    public FreeStyleBuild publish(PublishState state) throws Exception {
+        return state.publish();
+    }
+}
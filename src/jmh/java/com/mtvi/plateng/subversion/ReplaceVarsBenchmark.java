@@ -0,0 +1,92 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.EnvVars;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * {@link Utils#replaceVars} against build environments of the sizes seen on
+ * agents, a few dozen variables for a plain job to a thousand for a job with
+ * many parameters. The regex expansion the plugin used before is measured
+ * alongside as the baseline.
+ *
+ * @author sekfung
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReplaceVarsBenchmark {
+    @Param({"30", "100", "1000"})
+    public int variables;
+
+    @Param({"releases/${JOB_NAME}/${BUILD_NUMBER}", "releases/latest"})
+    public String template;
+
+    private EnvVars vars;
+
+    @Setup
+    public void setUp() {
+        vars = environment(variables);
+    }
+
+    /**
+     * A build environment with the usual Jenkins variables, padded with
+     * parameters up to the given size.
+     */
+    static EnvVars environment(int size) {
+        EnvVars vars = new EnvVars();
+        vars.put("JOB_NAME", "platform/app");
+        vars.put("BUILD_NUMBER", "1234");
+        vars.put("BRANCH_NAME", "main");
+        vars.put("WORKSPACE", "/home/jenkins/workspace/platform/app");
+        for (int i = vars.size(); i < size; i++) {
+            vars.put("PARAM_" + i, "value-" + i);
+        }
+        return vars;
+    }
+
+    @Benchmark
+    public String replaceVars() {
+        return Utils.replaceVars(vars, template);
+    }
+
+    @Benchmark
+    public String regexBaseline() {
+        return regexReplaceVars(vars, template);
+    }
+
+    /**
+     * The expansion of the plugin before the template parser: a pattern
+     * compiled and run per variable, when the whole string looks like a token.
+     */
+    static String regexReplaceVars(EnvVars vars, String original) {
+        String replaced = original;
+        if (Pattern.matches("\\$\\{.+}", original)) {
+            for (Map.Entry<String, String> k : vars.entrySet()) {
+                Pattern p = Pattern.compile("\\$\\{" + k.getKey() + "}");
+                Matcher m = p.matcher(replaced);
+                if (m.find()) {
+                    replaced = m.replaceAll(vars.get(k.getKey()).trim());
+                }
+            }
+        }
+        return replaced;
+    }
+}
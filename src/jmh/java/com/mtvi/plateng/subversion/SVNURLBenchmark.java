@@ -0,0 +1,50 @@
+package com.mtvi.plateng.subversion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the url of a step and appending the paths of published files to it,
+ * done for every publish and every file.
+ *
+ * @author sekfung
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class SVNURLBenchmark {
+    static final String URL = "https://svn.example.com/repos/platform/releases/app%20server";
+    static final String PATH = "releases/1234/module-7/app-server-1.4.3.jar";
+
+    private SVNURL url;
+
+    @Setup
+    public void setUp() throws SVNException {
+        url = SVNURL.parseURIDecoded(URL);
+    }
+
+    @Benchmark
+    public SVNURL parseURIDecoded() throws SVNException {
+        return SVNURL.parseURIDecoded(URL);
+    }
+
+    @Benchmark
+    public SVNURL appendPath() throws SVNException {
+        return url.appendPath(PATH, false);
+    }
+}
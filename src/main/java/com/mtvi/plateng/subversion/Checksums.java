@@ -0,0 +1,77 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Hex checksums of local files, compared with the MD5 or SHA-1 checksums
+ * subversion keeps for committed and pristine files.
+ *
+ * @author sekfung
+ */
+class Checksums {
+    static final String MD5 = "MD5";
+    static final String SHA1 = "SHA-1";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Checksums() {
+    }
+
+    static MessageDigest newDigest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String digest(File file, String algorithm) throws IOException {
+        MessageDigest digest = newDigest(algorithm);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Tell whether the file has the given checksum. The algorithm is picked
+     * from the checksum length, 40 hex digits for SHA-1 and 32 for MD5.
+     */
+    static boolean matches(File file, String checksum) throws IOException {
+        if (checksum == null) {
+            return false;
+        }
+        String algorithm = algorithmOf(checksum);
+        return algorithm != null && checksum.equalsIgnoreCase(digest(file, algorithm));
+    }
+
+    static String algorithmOf(String checksum) {
+        switch (checksum.length()) {
+            case 32:
+                return MD5;
+            case 40:
+                return SHA1;
+            default:
+                return null;
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,76 @@
+package com.mtvi.plateng.subversion;
+
+import org.tmatesoft.svn.core.SVNErrorCode;
+import org.tmatesoft.svn.core.SVNErrorMessage;
+import org.tmatesoft.svn.core.SVNException;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Counts the attempts of a commit and decides whether a failed one is worth
+ * another try. Only conflicts with concurrent commits are: out of date paths
+ * and locks held by someone else. Between attempts it waits an exponentially
+ * growing, jittered delay so that builds colliding once do not collide again.
+ *
+ * @author sekfung
+ */
+final class CommitRetry {
+    static final long BASE_DELAY_MILLIS = 500;
+    static final long MAX_DELAY_MILLIS = 30000;
+
+    private final int maxRetries;
+    private int attempts;
+
+    /**
+     * @param maxRetries the attempts allowed after the first one.
+     */
+    CommitRetry(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    void begin() {
+        attempts++;
+    }
+
+    int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Wait before the next attempt when the failure can be retried.
+     *
+     * @return false when the failure is final.
+     */
+    boolean backOff(SVNException e) throws SVNPublisherException {
+        if (attempts > maxRetries || !isRetryable(e)) {
+            return false;
+        }
+        long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempts - 1, 16));
+        // half of the delay is fixed, the other half random
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SVNPublisherException(ie);
+        }
+        return true;
+    }
+
+    static boolean isRetryable(SVNException e) {
+        for (SVNErrorMessage m = e.getErrorMessage(); m != null; m = m.getChildErrorMessage()) {
+            SVNErrorCode code = m.getErrorCode();
+            if (code == SVNErrorCode.FS_TXN_OUT_OF_DATE || code == SVNErrorCode.WC_NOT_UP_TO_DATE
+                    || code == SVNErrorCode.RA_OUT_OF_DATE || code == SVNErrorCode.FS_CONFLICT
+                    || code == SVNErrorCode.FS_PATH_ALREADY_LOCKED) {
+                return true;
+            }
+            // the DAV layer does not always keep the code of the server
+            String message = m.getMessage();
+            if (message != null && (message.contains("out of date") || message.contains("out-of-date"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,103 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tells the artifacts that are already compressed apart from the others.
+ * The extension settles it for the usual archive, image and media formats,
+ * any other file is judged by the entropy of its first block: data close to
+ * eight bits of entropy per byte does not shrink any further.
+ * <p>
+ * It only tells how much of the bytes sent were already compressed, for the
+ * build log. It does not change the connections: they compress, or not, as
+ * the Subversion configuration says, whatever the file.
+ *
+ * @author sekfung
+ */
+final class Compressibility {
+    static final int SAMPLE_SIZE = 64 * 1024;
+    /**
+     * Bits of entropy per byte from which a sample counts as compressed.
+     */
+    static final double ENTROPY_THRESHOLD = 7.5;
+
+    private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "zip", "jar", "war", "ear", "apk", "aar", "nupkg", "whl",
+            "gz", "tgz", "bz2", "tbz2", "xz", "txz", "lz", "lzma", "zst", "7z", "rar", "cab",
+            "png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "mkv", "avi", "mov", "ogg",
+            "docx", "xlsx", "pptx", "odt", "ods", "pdf"));
+
+    private Compressibility() {
+    }
+
+    /**
+     * How a file stands to compression, worked out once per file and carried
+     * along with it, as telling it may read the first block of the file.
+     */
+    enum Kind {
+        PLAIN,
+        COMPRESSED;
+
+        boolean isCompressed() {
+            return this != PLAIN;
+        }
+    }
+
+    static Kind classify(File file) {
+        if (COMPRESSED_EXTENSIONS.contains(extensionOf(file))) {
+            return Kind.COMPRESSED;
+        }
+        // small files weigh little either way, and are not worth reading
+        if (file.length() < SAMPLE_SIZE) {
+            return Kind.PLAIN;
+        }
+        try {
+            return entropyOfSample(file) >= ENTROPY_THRESHOLD ? Kind.COMPRESSED : Kind.PLAIN;
+        } catch (IOException e) {
+            return Kind.PLAIN;
+        }
+    }
+
+    private static String extensionOf(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the Shannon entropy, in bits per byte, of the first block of the file.
+     */
+    static double entropyOfSample(File file) throws IOException {
+        byte[] buffer = new byte[SAMPLE_SIZE];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (length < buffer.length && (n = in.read(buffer, length, buffer.length - length)) > 0) {
+                length += n;
+            }
+        }
+        // too little data to judge
+        if (length < 1024) {
+            return 0;
+        }
+        int[] counts = new int[256];
+        for (int i = 0; i < length; i++) {
+            counts[buffer[i] & 0xff]++;
+        }
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = (double) count / length;
+                entropy -= p * Math.log(p) / Math.log(2);
+            }
+        }
+        return entropy;
+    }
+}
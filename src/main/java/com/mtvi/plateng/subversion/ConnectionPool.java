@@ -0,0 +1,245 @@
+package com.mtvi.plateng.subversion;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import org.apache.commons.io.output.NullOutputStream;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A bounded per JVM pool of authenticated client managers and repository
+ * sessions, so that back to back publishes on the same agent reuse warm
+ * connections instead of reading the configuration and authenticating again.
+ * <p>
+ * Entries are keyed by server (protocol, host and port) and a fingerprint of
+ * the credentials, which is what a connection can be shared across. Keying by
+ * repository root would take a round trip to find the root before every
+ * borrow, and would keep apart the sessions of repositories on one server,
+ * while a pooled session is moved to any url of its server with
+ * {@link SVNRepository#setLocation}. Keying by credentials id would miss
+ * credentials without an id, and secrets updated under the same id: the
+ * fingerprint covers the secrets, so those do not get the connections
+ * authenticated with the old ones. A borrowed entry is used
+ * by one publish only; it goes back to the pool when the lease is closed and
+ * is disposed once it has been idle for too long or the pool is full.
+ *
+ * @author sekfung
+ */
+final class ConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+    static final int MAX_IDLE = Integer.getInteger(ConnectionPool.class.getName() + ".maxIdle", 8);
+    static final long IDLE_TIMEOUT = Long.getLong(ConnectionPool.class.getName() + ".idleTimeout", TimeUnit.MINUTES.toMillis(5));
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+    private final Map<Key, Deque<Entry>> idle = new HashMap<>();
+    private int idleCount;
+    private ScheduledExecutorService evictor;
+
+    private ConnectionPool() {
+    }
+
+    static ConnectionPool get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Borrow a manager and a repository session located at the given url.
+     */
+    Lease borrow(SVNURL url, Credentials credentials) throws SVNException {
+        Key key = new Key(url, credentials);
+        Entry entry = null;
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis());
+            Deque<Entry> entries = idle.get(key);
+            if (entries != null && !entries.isEmpty()) {
+                entry = entries.pop();
+                idleCount--;
+            }
+        }
+        if (entry == null) {
+            SVNClientManager manager = SVNWorker.createManager(credentials);
+            entry = new Entry(manager, manager.createRepository(url, true));
+        } else {
+            entry.repository.setLocation(url, false);
+        }
+        return new Lease(key, entry);
+    }
+
+    private void release(Key key, Entry entry) {
+        Entry evicted = null;
+        synchronized (this) {
+            entry.lastUsed = System.currentTimeMillis();
+            idle.computeIfAbsent(key, k -> new ArrayDeque<>()).push(entry);
+            idleCount++;
+            if (idleCount > MAX_IDLE) {
+                evicted = removeOldest();
+            }
+            scheduleEviction();
+        }
+        if (evicted != null) {
+            evicted.dispose();
+        }
+    }
+
+    private Entry removeOldest() {
+        Deque<Entry> oldestDeque = null;
+        for (Deque<Entry> entries : idle.values()) {
+            if (!entries.isEmpty() && (oldestDeque == null || entries.peekLast().lastUsed < oldestDeque.peekLast().lastUsed)) {
+                oldestDeque = entries;
+            }
+        }
+        if (oldestDeque == null) {
+            return null;
+        }
+        idleCount--;
+        return oldestDeque.pollLast();
+    }
+
+    private void evictIdle(long now) {
+        Iterator<Deque<Entry>> it = idle.values().iterator();
+        while (it.hasNext()) {
+            Deque<Entry> entries = it.next();
+            while (!entries.isEmpty() && now - entries.peekLast().lastUsed > IDLE_TIMEOUT) {
+                entries.pollLast().dispose();
+                idleCount--;
+            }
+            if (entries.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void scheduleEviction() {
+        if (evictor == null) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "SVN Publisher connection evictor");
+                t.setDaemon(true);
+                return t;
+            });
+            evictor.scheduleWithFixedDelay(() -> {
+                synchronized (this) {
+                    evictIdle(System.currentTimeMillis());
+                }
+            }, IDLE_TIMEOUT, IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * A borrowed manager and repository session. Closing the lease returns
+     * them to the pool, unless the lease was invalidated after a failure.
+     */
+    final class Lease implements AutoCloseable {
+        private final Key key;
+        private final Entry entry;
+        private boolean invalid;
+
+        private Lease(Key key, Entry entry) {
+            this.key = key;
+            this.entry = entry;
+        }
+
+        SVNClientManager getManager() {
+            return entry.manager;
+        }
+
+        SVNRepository getRepository() {
+            return entry.repository;
+        }
+
+        /**
+         * Dispose the connections on close instead of pooling them, used when
+         * they may be in a broken state.
+         */
+        void invalidate() {
+            invalid = true;
+        }
+
+        @Override
+        public void close() {
+            if (invalid) {
+                entry.dispose();
+            } else {
+                release(key, entry);
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final SVNClientManager manager;
+        private final SVNRepository repository;
+        private long lastUsed;
+
+        Entry(SVNClientManager manager, SVNRepository repository) {
+            this.manager = manager;
+            this.repository = repository;
+        }
+
+        void dispose() {
+            try {
+                repository.closeSession();
+                manager.dispose();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "failed to dispose pooled connection", e);
+            }
+        }
+    }
+
+    private static final class Key {
+        private final String server;
+        private final String credentials;
+
+        Key(SVNURL url, Credentials credentials) {
+            this.server = url.getProtocol() + "://" + url.getHost() + ":" + url.getPort();
+            this.credentials = fingerprint(credentials);
+        }
+
+        /**
+         * Hash the serialized credentials, secrets included. They come as a
+         * new copy with every publish from the controller, so neither their
+         * identity nor their id tells whether they changed.
+         */
+        private static String fingerprint(Credentials credentials) {
+            MessageDigest digest = Checksums.newDigest("SHA-256");
+            try (ObjectOutputStream out = new ObjectOutputStream(new DigestOutputStream(new NullOutputStream(), digest))) {
+                out.writeObject(credentials);
+            } catch (IOException e) {
+                // not pooled with any other
+                LOGGER.log(Level.FINE, "can not fingerprint " + credentials.getClass().getName(), e);
+                return credentials.getClass().getName() + "@" + System.identityHashCode(credentials);
+            }
+            return Checksums.toHex(digest.digest());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return server.equals(other.server) && credentials.equals(other.credentials);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(server, credentials);
+        }
+    }
+}
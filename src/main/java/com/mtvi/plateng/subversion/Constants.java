@@ -8,4 +8,7 @@ public class Constants {
     public static final String NEVER_COMMIT = "never";
     public static final String ALWAYS_COMMIT = "always";
     public static final String TRIGGER_COMMIT = "trigger";
+    public static final String WORKING_COPY_MODE = "workingCopy";
+    public static final String DIRECT_MODE = "direct";
+    public static final String MIRROR_MODE = "mirror";
 }
@@ -0,0 +1,254 @@
+package com.mtvi.plateng.subversion;
+
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.internal.wc.SVNFileUtil;
+import org.tmatesoft.svn.core.io.ISVNDeltaConsumer;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+import org.tmatesoft.svn.core.io.diff.SVNDiffWindow;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Picks the modified files that are worth uploading as a delta against their
+ * committed version instead of as full text, and keeps the committed versions
+ * in a local cache so that the next publish does not have to fetch them again.
+ * <p>
+ * Only files of at least the threshold size are considered. For each of them
+ * the delta is generated once without sending anything; when it is not
+ * smaller than the file itself the file goes up as full text.
+ * <p>
+ * A cached version is named by its MD5 checksum. It is always a copy, never a
+ * link to the workspace file it came from, and its content is checked
+ * against its name before it is used, so a cache entry that does not match
+ * is fetched again rather than diffed against.
+ *
+ * @author sekfung
+ */
+class DeltaUploads {
+    private static final Logger LOGGER = Logger.getLogger(DeltaUploads.class.getName());
+
+    private final SVNRepository repository;
+    private final long revision;
+    private final File cacheDir;
+    private final long threshold;
+    private final List<File> usedBases = new ArrayList<>();
+
+    /**
+     * @param cacheDir  where committed versions are kept between publishes, or
+     *                  null to fetch them into temporary files every time.
+     * @param threshold the smallest file size worth a delta, 0 to disable deltas.
+     */
+    DeltaUploads(SVNRepository repository, long revision, File cacheDir, long threshold) {
+        this.repository = repository;
+        this.revision = revision;
+        this.cacheDir = cacheDir;
+        this.threshold = threshold;
+    }
+
+    boolean isEnabled() {
+        return threshold > 0;
+    }
+
+    boolean isCandidate(File file) {
+        return isEnabled() && file.length() >= threshold;
+    }
+
+    /**
+     * Work out which of the uploads go up as deltas.
+     *
+     * @return the committed base of each upload sent as a delta, by path.
+     */
+    Map<String, Base> plan(Map<String, File> uploads, RepositoryListing listing, Workers workers) throws SVNException, SVNPublisherException {
+        Map<String, Base> bases = new HashMap<>();
+        if (!isEnabled()) {
+            return bases;
+        }
+        List<Base> candidates = new ArrayList<>();
+        for (Map.Entry<String, File> upload : uploads.entrySet()) {
+            SVNDirEntry entry = listing.entry(upload.getKey());
+            if (entry == null || entry.getKind() != SVNNodeKind.FILE || !isCandidate(upload.getValue())) {
+                continue;
+            }
+            try {
+                candidates.add(fetch(upload.getKey(), upload.getValue()));
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "no delta base for " + upload.getKey(), e);
+            }
+        }
+        List<Long> sizes = workers.map(candidates, base -> measure(base.file, base.target));
+        for (int i = 0; i < candidates.size(); i++) {
+            Base base = candidates.get(i);
+            if (sizes.get(i) < base.target.length()) {
+                base.deltaSize = sizes.get(i);
+                bases.put(base.path, base);
+            } else {
+                LOGGER.fine("delta of " + base.path + " is not smaller than the file, sending full text");
+            }
+        }
+        return bases;
+    }
+
+    /**
+     * Get the committed version of a file from the cache, or from the
+     * repository when it is not cached yet.
+     */
+    private Base fetch(String path, File target) throws SVNException, IOException {
+        SVNProperties properties = new SVNProperties();
+        repository.getFile(path, revision, properties, null);
+        String checksum = properties.getStringValue(SVNProperty.CHECKSUM);
+        File file = cacheDir == null ? null : new File(cacheDir, checksum);
+        if (file != null && file.isFile() && !Checksums.matches(file, checksum)) {
+            LOGGER.info("cached base of " + path + " does not match its checksum, fetching it again");
+            FileUtils.deleteQuietly(file);
+        }
+        if (file == null || !file.isFile()) {
+            file = download(path, checksum);
+        }
+        usedBases.add(file);
+        return new Base(path, file, checksum, target);
+    }
+
+    private File download(String path, String checksum) throws SVNException, IOException {
+        File part;
+        if (cacheDir == null) {
+            part = File.createTempFile(Constants.PLUGIN_NAME, ".base");
+        } else {
+            FileUtils.forceMkdir(cacheDir);
+            part = new File(cacheDir, checksum + ".part");
+        }
+        MessageDigest digest = Checksums.newDigest(Checksums.MD5);
+        try (OutputStream out = new DigestOutputStream(new FileOutputStream(part), digest)) {
+            repository.getFile(path, revision, null, out);
+        }
+        if (!checksum.equals(Checksums.toHex(digest.digest()))) {
+            FileUtils.deleteQuietly(part);
+            throw new IOException("checksum mismatch fetching " + path);
+        }
+        if (cacheDir == null) {
+            return part;
+        }
+        File file = new File(cacheDir, checksum);
+        if (!part.renameTo(file)) {
+            FileUtils.deleteQuietly(part);
+            throw new IOException("can not cache " + path);
+        }
+        return file;
+    }
+
+    /**
+     * Generate the delta without sending it, to learn how large it would be.
+     */
+    static long measure(File base, File target) throws SVNException, IOException {
+        long[] size = new long[1];
+        ISVNDeltaConsumer counter = new ISVNDeltaConsumer() {
+            @Override
+            public void applyTextDelta(String path, String baseChecksum) {
+            }
+
+            @Override
+            public OutputStream textDeltaChunk(String path, SVNDiffWindow diffWindow) {
+                size[0] += diffWindow.getInstructionsLength() + diffWindow.getNewDataLength();
+                return SVNFileUtil.DUMMY_OUT;
+            }
+
+            @Override
+            public void textDeltaEnd(String path) {
+            }
+        };
+        try (InputStream source = new FileInputStream(base); InputStream in = new FileInputStream(target)) {
+            new SVNDeltaGenerator(DirectCommitter.WINDOW_SIZE).sendDelta(target.getPath(), source, 0, in, counter, false);
+        }
+        return size[0];
+    }
+
+    /**
+     * Once the commit went through, replace the bases used by the committed
+     * content of the delta candidates, so the cache only ever holds the
+     * latest version of each large file.
+     *
+     * @param committed the content committed for each candidate, by checksum.
+     */
+    void update(Map<String, File> committed) {
+        if (cacheDir == null) {
+            release();
+            return;
+        }
+        for (File base : usedBases) {
+            if (!committed.containsKey(base.getName())) {
+                FileUtils.deleteQuietly(base);
+            }
+        }
+        for (Map.Entry<String, File> entry : committed.entrySet()) {
+            File cached = new File(cacheDir, entry.getKey());
+            if (cached.isFile()) {
+                continue;
+            }
+            // a copy, a link would change along with the workspace file
+            File part = new File(cacheDir, entry.getKey() + ".part");
+            try {
+                String checksum = Staging.copy(entry.getValue(), part, Checksums.MD5);
+                if (!checksum.equals(entry.getKey())) {
+                    throw new IOException(entry.getValue() + " changed since it was committed");
+                }
+                if (!part.renameTo(cached)) {
+                    throw new IOException("can not rename " + part);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "can not cache " + entry.getValue(), e);
+                FileUtils.deleteQuietly(part);
+            }
+        }
+    }
+
+    /**
+     * Drop the temporary bases after a failed commit, the cached ones are
+     * still the committed versions.
+     */
+    void release() {
+        if (cacheDir == null) {
+            for (File base : usedBases) {
+                FileUtils.deleteQuietly(base);
+            }
+        }
+    }
+
+    /**
+     * The committed version a file is diffed against.
+     */
+    static final class Base {
+        final String path;
+        final File file;
+        final String checksum;
+        final File target;
+        /**
+         * The bytes of the delta, once measured.
+         */
+        long deltaSize;
+
+        Base(String path, File file, String checksum, File target) {
+            this.path = path;
+            this.file = file;
+            this.checksum = checksum;
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.EnvVars;
+import org.tmatesoft.svn.core.SVNCommitInfo;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.ISVNEditor;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.diff.SVNDeltaGenerator;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the matched files of a set of {@link ImportItem}s by driving a
+ * commit editor straight against the repository, so no working copy is ever
+ * checked out. Paths are relative to the location of the given repository.
+ * <p>
+ * In mirror mode the files keep their path relative to the local path of
+ * their item, and whatever the target directories hold that was not matched
+ * is deleted in the same commit. An item whose pattern matched nothing
+ * leaves its target as it is, and an item without a path is refused, as it
+ * would mirror onto everything under the publish location.
+ *
+ * @author sekfung
+ */
+class DirectCommitter {
+    private static final Logger LOGGER = Logger.getLogger(DirectCommitter.class.getName());
+    /**
+     * The most bytes of a file held in memory at once while it is sent, so a
+     * file of any size is streamed with the same heap. The default window of
+     * SVNKit's delta generator.
+     */
+    static final int WINDOW_SIZE = 100 * 1024;
+
+    /**
+     * Orders paths so that every directory's descendants are contiguous,
+     * which lets the editor open and close each directory exactly once.
+     */
+    static final Comparator<String> PATH_ORDER = Comparator.comparing(p -> p.replace('/', '\0'));
+
+    private final SVNRepository repository;
+    private final File baseLocalDir;
+    private final PublishOptions options;
+    private final EnvVars envVars;
+    private final Set<String> addedDirs = new HashSet<>();
+    private RepositoryListing listing;
+    private DeltaUploads deltas;
+    private Map<String, DeltaUploads.Base> deltaBases;
+    private final Map<String, File> committedContent = new HashMap<>();
+    private long revision;
+    private Transfer transfer;
+    private final Map<String, Integer> itemOf = new HashMap<>();
+    /**
+     * How each upload stands to compression, kept across the attempts.
+     */
+    private final Map<String, Compressibility.Kind> kinds = new HashMap<>();
+    private final PhaseTimings timings;
+    private final PrintStream logger;
+    /**
+     * The mirror mode targets whose stale entries are deleted, with the item
+     * the deletes are listed under, and those left as they are since their
+     * items matched nothing.
+     */
+    private final Map<String, Integer> mirrorTargets = new TreeMap<>(PATH_ORDER);
+    private final Set<String> untouchedTargets = new HashSet<>();
+
+    DirectCommitter(SVNRepository repository, File baseLocalDir, PublishOptions options, EnvVars envVars, PhaseTimings timings, PrintStream logger) {
+        this.repository = repository;
+        this.baseLocalDir = baseLocalDir;
+        this.options = options;
+        this.envVars = envVars;
+        this.timings = timings;
+        this.logger = logger;
+    }
+
+    /**
+     * Commit the files matched by the items in a single revision. When a
+     * concurrent commit gets in the way, the commit is worked out again
+     * against the new latest revision.
+     *
+     * @return the new revision and the number of files sent or deleted, the
+     * revision is -1 when nothing matched or changed, so nothing was committed.
+     * @throws SVNPublisherException when the commit fails for good, on an
+     * error that can not be retried or once the retries are used up, and in
+     * mirror mode for an item without a path.
+     */
+    PublishResult commit(List<ImportItem> items, List<List<File>> matches, String commitMessage) throws SVNPublisherException {
+        if (options.isMirrorMode()) {
+            planMirror(items, matches);
+        }
+        CommitRetry retry = new CommitRetry(options.getRetries());
+        try (Workers workers = new Workers(options.getWorkers(), timings)) {
+            Map<String, File> matched = collectUploads(items, matches);
+            while (true) {
+                retry.begin();
+                Map<String, File> uploads = new TreeMap<>(PATH_ORDER);
+                uploads.putAll(matched);
+                try {
+                    return attempt(uploads, workers, commitMessage, retry.getAttempts());
+                } catch (SVNException e) {
+                    if (!retry.backOff(e)) {
+                        throw new SVNPublisherException("Error in repository " + e.getMessage());
+                    }
+                    LOGGER.info("commit attempt " + retry.getAttempts() + " conflicted, retrying: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private PublishResult attempt(Map<String, File> uploads, Workers workers, String commitMessage, int attempts) throws SVNException, SVNPublisherException {
+        addedDirs.clear();
+        committedContent.clear();
+        transfer = new Transfer();
+        long start = System.nanoTime();
+        revision = repository.getLatestRevision();
+        listing = new RepositoryListing(repository, revision);
+        List<String> deletes = new ArrayList<>();
+        if (options.isMirrorMode()) {
+            deletes = staleEntries(uploads.keySet());
+        }
+        skipUnchanged(uploads, workers);
+        start = timings.record(PhaseTimings.Phase.CHECK_PATH, start);
+        if (uploads.isEmpty() && deletes.isEmpty()) {
+            return PublishResult.nothingCommitted();
+        }
+        File cacheDir = options.getCacheDir() == null ? null : new File(options.getCacheDir());
+        deltas = new DeltaUploads(repository, revision, cacheDir, options.getDeltaThreshold());
+        classify(uploads, workers);
+        deltaBases = deltas.plan(uploads, listing, workers);
+        ISVNEditor editor = repository.getCommitEditor(commitMessage, null, false, null);
+        try {
+            SVNCommitInfo info = send(editor, uploads, deletes);
+            if (info.getErrorMessage() != null) {
+                throw new SVNPublisherException(info.getErrorMessage().getFullMessage());
+            }
+            deltas.update(committedContent);
+            timings.record(PhaseTimings.Phase.COMMIT, start);
+            return new PublishResult(info.getNewRevision(), uploads.size() + deletes.size(), attempts).withTransfer(transfer);
+        } catch (SVNException | SVNPublisherException e) {
+            timings.record(PhaseTimings.Phase.COMMIT, start);
+            editor.abortEdit();
+            deltas.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @param matches the files matched by each item, relative to its local path.
+     */
+    private Map<String, File> collectUploads(List<ImportItem> items, List<List<File>> matches) {
+        Map<String, File> uploads = new TreeMap<>(PATH_ORDER);
+        for (int i = 0; i < items.size(); i++) {
+            ImportItem item = items.get(i);
+            String dir = normalize(item.getPath());
+            File localPath = new File(baseLocalDir, item.getLocalPath());
+            for (File f : matches.get(i)) {
+                String name = options.isMirrorMode() ? f.getPath().replace(File.separatorChar, '/') : f.getName();
+                String path = SVNPathUtil.append(dir, name);
+                uploads.put(path, new File(localPath, f.getPath()));
+                itemOf.put(path, i);
+            }
+        }
+        return uploads;
+    }
+
+    /**
+     * Sort the targets of the items into those mirrored and those left as
+     * they are: an item whose pattern matched nothing, say a build that
+     * produced no artifacts, would otherwise have its whole target deleted.
+     */
+    private void planMirror(List<ImportItem> items, List<List<File>> matches) throws SVNPublisherException {
+        for (int i = 0; i < items.size(); i++) {
+            ImportItem item = items.get(i);
+            String target = normalize(item.getPath());
+            if (target.isEmpty()) {
+                String message = "Mirror mode needs a path for the item " + item.getPattern()
+                        + ", it would delete everything else under " + repository.getLocation();
+                logger.println(message);
+                throw new SVNPublisherException(message);
+            }
+            if (matches.get(i).isEmpty()) {
+                untouchedTargets.add(target);
+            } else {
+                mirrorTargets.putIfAbsent(target, i);
+            }
+        }
+        untouchedTargets.removeAll(mirrorTargets.keySet());
+        for (String target : untouchedTargets) {
+            logger.println("Nothing matched for " + target + ", mirror mode deletes nothing in it");
+        }
+    }
+
+    /**
+     * Find what the target directories of the items hold besides the mirrored
+     * files, walking the repository listing only where something is kept: a
+     * directory holding none of the mirrored files is deleted as a whole.
+     */
+    private List<String> staleEntries(Set<String> mirrored) throws SVNException {
+        Set<String> keptDirs = new HashSet<>();
+        for (String path : mirrored) {
+            // every ancestor of a mirrored file is kept
+            String dir = SVNPathUtil.removeTail(path);
+            while (!dir.isEmpty() && keptDirs.add(dir)) {
+                dir = SVNPathUtil.removeTail(dir);
+            }
+        }
+        List<String> stale = new ArrayList<>();
+        String walked = null;
+        for (Map.Entry<String, Integer> target : mirrorTargets.entrySet()) {
+            // a target inside another one is covered by the walk of the outer one
+            if (walked != null && isAncestor(walked, target.getKey())) {
+                continue;
+            }
+            walked = target.getKey();
+            if (listing.kindOf(walked) == SVNNodeKind.DIR) {
+                collectStale(target.getValue(), walked, mirrored, keptDirs, stale);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * @param item the index of the item whose target is walked, the stale
+     * entries are listed under it.
+     */
+    private void collectStale(int item, String dir, Set<String> mirrored, Set<String> keptDirs, List<String> stale) throws SVNException {
+        for (SVNDirEntry entry : listing.children(dir).values()) {
+            String path = SVNPathUtil.append(dir, entry.getName());
+            if (untouchedTargets.contains(path)) {
+                // the target of an item that matched nothing, inside a mirrored one
+                continue;
+            }
+            if (entry.getKind() == SVNNodeKind.DIR && keptDirs.contains(path)) {
+                collectStale(item, path, mirrored, keptDirs, stale);
+            } else if (!mirrored.contains(path)) {
+                stale.add(path);
+                itemOf.put(path, item);
+            }
+        }
+    }
+
+    /**
+     * Drop the uploads whose content equals the checksum the repository
+     * already stores for the file. A size that differs from the listed entry
+     * settles it without asking for the checksum; the checksums are fetched on
+     * the repository session and the local files are hashed by the workers.
+     */
+    private void skipUnchanged(Map<String, File> uploads, Workers workers) throws SVNException, SVNPublisherException {
+        List<Committed> committed = new ArrayList<>();
+        for (String path : uploads.keySet()) {
+            SVNDirEntry entry = listing.entry(path);
+            if (entry == null || entry.getKind() != SVNNodeKind.FILE || entry.getSize() != uploads.get(path).length()) {
+                continue;
+            }
+            SVNProperties properties = new SVNProperties();
+            repository.getFile(path, revision, properties, null);
+            committed.add(new Committed(path, uploads.get(path), properties.getStringValue(SVNProperty.CHECKSUM)));
+        }
+        List<Boolean> unchanged = workers.map(committed, c -> Checksums.matches(c.file, c.checksum));
+        for (int i = 0; i < committed.size(); i++) {
+            if (unchanged.get(i)) {
+                Committed c = committed.get(i);
+                uploads.remove(c.path);
+                transfer.unchanged(itemOf.get(c.path), c.path, c.file, c.checksum);
+            }
+        }
+    }
+
+    private SVNCommitInfo send(ISVNEditor editor, Map<String, File> uploads, List<String> deletes) throws SVNException, SVNPublisherException {
+        // deletes go in path order along with the uploads, marked by a null file
+        Map<String, File> changes = new TreeMap<>(PATH_ORDER);
+        changes.putAll(uploads);
+        for (String path : deletes) {
+            changes.put(path, null);
+        }
+        Deque<String> openDirs = new ArrayDeque<>();
+        editor.openRoot(-1);
+        openDirs.push("");
+        SVNDeltaGenerator generator = new SVNDeltaGenerator(WINDOW_SIZE);
+        for (Map.Entry<String, File> upload : changes.entrySet()) {
+            String path = upload.getKey();
+            openDirsTo(editor, openDirs, SVNPathUtil.removeTail(path));
+            if (upload.getValue() == null) {
+                editor.deleteEntry(path, revision);
+                transfer.delete(itemOf.get(path), path);
+                continue;
+            }
+            SVNNodeKind kind = kindOf(path);
+            if (kind == SVNNodeKind.DIR) {
+                throw new SVNPublisherException("Can not replace directory " + path + " with a file");
+            }
+            if (kind == SVNNodeKind.NONE) {
+                editor.addFile(path, null, -1);
+            } else {
+                editor.openFile(path, revision);
+            }
+            String checksum = sendContent(editor, generator, path, upload.getValue(), kind == SVNNodeKind.NONE);
+            editor.closeFile(path, checksum);
+            if (deltas.isCandidate(upload.getValue())) {
+                committedContent.put(checksum, upload.getValue());
+            }
+        }
+        while (!openDirs.isEmpty()) {
+            openDirs.pop();
+            editor.closeDir();
+        }
+        return editor.closeEdit();
+    }
+
+    /**
+     * Send the file as a delta against its committed version when one was
+     * planned for it, as full text otherwise.
+     *
+     * @return the checksum of the sent content.
+     */
+    private String sendContent(ISVNEditor editor, SVNDeltaGenerator generator, String path, File file, boolean isNew) throws SVNException, SVNPublisherException {
+        DeltaUploads.Base base = deltaBases.get(path);
+        try (InputStream in = new FileInputStream(file)) {
+            String checksum;
+            if (base == null) {
+                editor.applyTextDelta(path, null);
+                checksum = generator.sendDelta(path, in, editor, true);
+            } else {
+                editor.applyTextDelta(path, base.checksum);
+                try (InputStream source = new FileInputStream(base.file)) {
+                    checksum = generator.sendDelta(path, source, 0, in, editor, true);
+                }
+            }
+            transfer.add(itemOf.get(path), path, file, base == null ? file.length() : base.deltaSize, isNew, checksum, kinds.get(path));
+            return checksum;
+        } catch (IOException e) {
+            throw new SVNPublisherException(e);
+        }
+    }
+
+    /**
+     * Tell how each upload not seen by an earlier attempt stands to
+     * compression, so that no file is sampled more than once.
+     */
+    private void classify(Map<String, File> uploads, Workers workers) throws SVNPublisherException {
+        List<String> paths = new ArrayList<>();
+        for (String path : uploads.keySet()) {
+            if (!kinds.containsKey(path)) {
+                paths.add(path);
+            }
+        }
+        List<Compressibility.Kind> classified = workers.map(paths, path -> Compressibility.classify(uploads.get(path)));
+        for (int i = 0; i < paths.size(); i++) {
+            kinds.put(paths.get(i), classified.get(i));
+        }
+    }
+
+    /**
+     * Close the open directories that do not contain {@code dir}, then open
+     * (or add, when missing) each directory from there down to {@code dir}.
+     */
+    private void openDirsTo(ISVNEditor editor, Deque<String> openDirs, String dir) throws SVNException, SVNPublisherException {
+        while (!isAncestor(openDirs.peek(), dir)) {
+            openDirs.pop();
+            editor.closeDir();
+        }
+        String top = openDirs.peek();
+        String rest = top.isEmpty() ? dir : dir.substring(top.length());
+        for (String segment : rest.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            String path = SVNPathUtil.append(openDirs.peek(), segment);
+            SVNNodeKind kind = kindOf(path);
+            if (kind == SVNNodeKind.FILE) {
+                throw new SVNPublisherException("Can not publish into " + path + ", it is a file");
+            }
+            if (kind == SVNNodeKind.NONE) {
+                editor.addDir(path, null, -1);
+                addedDirs.add(path);
+            } else {
+                editor.openDir(path, revision);
+            }
+            openDirs.push(path);
+        }
+    }
+
+    private SVNNodeKind kindOf(String path) throws SVNException {
+        // nothing below a directory added by this commit exists yet
+        if (addedDirs.contains(SVNPathUtil.removeTail(path))) {
+            return SVNNodeKind.NONE;
+        }
+        return listing.kindOf(path);
+    }
+
+    private static boolean isAncestor(String ancestor, String path) {
+        return ancestor.isEmpty() || path.equals(ancestor) || path.startsWith(ancestor + "/");
+    }
+
+    static String normalize(String path) {
+        if (path == null) {
+            return "";
+        }
+        String normalized = SVNPathUtil.canonicalizePath(path.replace('\\', '/'));
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        return normalized;
+    }
+
+    /**
+     * A local file about to overwrite a file already in the repository.
+     */
+    private static final class Committed {
+        private final String path;
+        private final File file;
+        private final String checksum;
+
+        Committed(String path, File file, String checksum) {
+            this.path = path;
+            this.file = file;
+            this.checksum = checksum;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.mtvi.plateng.subversion;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A string with {@code ${NAME}} tokens, parsed once into literal text and
+ * variable names so that expanding it is a single pass with one lookup per
+ * token, whatever the size of the environment. Parsed templates are kept in a
+ * small bounded cache since the same configuration strings are expanded on
+ * every build.
+ * <p>
+ * Tokens whose variable is not defined are left as they are, and values are
+ * trimmed, as the previous regular expression based expansion did.
+ *
+ * @author sekfung
+ */
+final class EnvTemplate {
+    static final int CACHE_SIZE = 512;
+
+    private static final Map<String, EnvTemplate> CACHE = Collections.synchronizedMap(new LinkedHashMap<String, EnvTemplate>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, EnvTemplate> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private final String text;
+    /**
+     * Literal text and variable names, alternating, starting with literal text.
+     */
+    private final String[] parts;
+
+    private EnvTemplate(String text, String[] parts) {
+        this.text = text;
+        this.parts = parts;
+    }
+
+    static EnvTemplate of(String text) {
+        EnvTemplate template = CACHE.get(text);
+        if (template == null) {
+            template = parse(text);
+            CACHE.put(text, template);
+        }
+        return template;
+    }
+
+    static EnvTemplate parse(String text) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int literal = 0;
+        while (true) {
+            int open = text.indexOf("${", start);
+            if (open < 0) {
+                break;
+            }
+            int close = text.indexOf('}', open + 2);
+            if (close < 0) {
+                break;
+            }
+            if (close == open + 2) {
+                // "${}" is not a token, keep it as text
+                start = close + 1;
+                continue;
+            }
+            parts.add(text.substring(literal, open));
+            parts.add(text.substring(open + 2, close));
+            start = close + 1;
+            literal = start;
+        }
+        parts.add(text.substring(literal));
+        return new EnvTemplate(text, parts.toArray(new String[0]));
+    }
+
+    boolean hasTokens() {
+        return parts.length > 1;
+    }
+
+    String expand(Map<String, String> vars) {
+        if (!hasTokens()) {
+            return text;
+        }
+        StringBuilder sb = new StringBuilder(text.length() + 32);
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 0) {
+                sb.append(parts[i]);
+                continue;
+            }
+            String value = vars.get(parts[i]);
+            if (value == null) {
+                sb.append("${").append(parts[i]).append('}');
+            } else {
+                sb.append(value.trim());
+            }
+        }
+        return sb.toString();
+    }
+}
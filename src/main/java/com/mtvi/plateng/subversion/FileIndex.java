@@ -0,0 +1,321 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The directory tree under a scanned root, kept on the agent between builds.
+ * For every directory it records the modification time and the names of its
+ * files and subdirectories. A rescan stats each directory it walks through,
+ * and only lists again those whose modification time changed; the others are
+ * answered from the index without touching their files.
+ * <p>
+ * Files are matched with {@link ScanPatterns}, walking from the fixed prefixes
+ * of the includes and skipping the directories they can not match, as the
+ * {@link PatternScanner} does. The index is shared by every item scanning the
+ * same root, whatever their patterns.
+ *
+ * @author sekfung
+ */
+final class FileIndex {
+    private static final Logger LOGGER = Logger.getLogger(FileIndex.class.getName());
+
+    private static final int VERSION = 2;
+    /**
+     * A directory changed this close to a scan may change again within the
+     * same modification time tick, so it is listed again on the next scan.
+     */
+    private static final long RACY_MILLIS = 2000;
+    private static final long UNKNOWN = -1;
+    private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final File store;
+    private final Map<String, Dir> dirs;
+    private boolean changed;
+
+    private FileIndex(Path root, File store, Map<String, Dir> dirs) {
+        this.root = root;
+        this.store = store;
+        this.dirs = dirs;
+    }
+
+    /**
+     * Find the files under the root matched by the patterns.
+     *
+     * @param indexDir       where the index of the root is kept, or null to
+     *                       walk the tree without one.
+     * @param followSymlinks walk linked directories and match linked files,
+     *                       otherwise links are left out.
+     * @return the matched paths, relative to the root and separated with '/'.
+     */
+    static List<String> scan(File root, File indexDir, ScanPatterns patterns, boolean followSymlinks) throws IOException {
+        if (indexDir == null) {
+            return PatternScanner.scan(root.toPath(), patterns, followSymlinks);
+        }
+        File store = new File(indexDir, "scan-" + Checksums.toHex(Checksums.newDigest(Checksums.MD5)
+                .digest(root.getAbsolutePath().getBytes(StandardCharsets.UTF_8))));
+        // items sharing a root are scanned by different workers
+        synchronized (LOCKS.computeIfAbsent(store.getAbsolutePath(), k -> new Object())) {
+            FileIndex index = load(root.toPath(), store);
+            List<String> matched = index.match(patterns, followSymlinks);
+            index.save();
+            return matched;
+        }
+    }
+
+    private List<String> match(ScanPatterns patterns, boolean followSymlinks) throws IOException {
+        List<String> matched = new ArrayList<>();
+        long scanStart = System.currentTimeMillis();
+        for (String start : patterns.startDirs()) {
+            if (!start.isEmpty() && !patterns.isWalked(start)) {
+                continue;
+            }
+            Path dir = start.isEmpty() ? root : root.resolve(start);
+            Path real = null;
+            if (followSymlinks) {
+                try {
+                    real = dir.toRealPath();
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+            }
+            walk(dir, real, start, patterns, followSymlinks, scanStart, matched, new HashSet<>());
+        }
+        return matched;
+    }
+
+    /**
+     * @param real      the real path of the directory when links are followed, null otherwise.
+     * @param ancestors the real paths of the directories being walked above this one.
+     */
+    private void walk(Path dir, Path real, String rel, ScanPatterns patterns, boolean followSymlinks, long scanStart,
+                      List<String> matched, Set<Path> ancestors) throws IOException {
+        Dir current = current(dir, rel, scanStart);
+        if (current == null) {
+            return;
+        }
+        for (String name : current.files) {
+            String path = rel.isEmpty() ? name : rel + '/' + name;
+            if ((followSymlinks || !current.isLink(name)) && patterns.isIncluded(path)) {
+                matched.add(path);
+            }
+        }
+        if (real != null) {
+            ancestors.add(real);
+        }
+        try {
+            for (String name : current.subdirs) {
+                String path = rel.isEmpty() ? name : rel + '/' + name;
+                boolean link = current.isLink(name);
+                if ((link && !followSymlinks) || !patterns.isWalked(path)) {
+                    continue;
+                }
+                Path child = dir.resolve(name);
+                Path childReal = null;
+                if (followSymlinks) {
+                    try {
+                        // only a link can lead anywhere but below the directory
+                        childReal = link ? child.toRealPath() : real.resolve(name);
+                    } catch (NoSuchFileException e) {
+                        continue;
+                    }
+                    // a link back to a directory being walked, directly or
+                    // through other links, would never end: the walk of the
+                    // file tree stops at such a link as well
+                    if (ancestors.contains(childReal)) {
+                        continue;
+                    }
+                }
+                walk(child, childReal, path, patterns, followSymlinks, scanStart, matched, ancestors);
+            }
+        } finally {
+            if (real != null) {
+                ancestors.remove(real);
+            }
+        }
+    }
+
+    /**
+     * @return the listing of the directory, from the index when it did not
+     * change since, or null when the directory is gone.
+     */
+    private Dir current(Path dir, String rel, long scanStart) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(dir, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            attrs = null;
+        }
+        if (attrs == null || !attrs.isDirectory()) {
+            changed |= dirs.remove(rel) != null;
+            return null;
+        }
+        long mtime = attrs.lastModifiedTime().toMillis();
+        Dir known = dirs.get(rel);
+        if (known != null && known.mtime == mtime) {
+            return known;
+        }
+        List<String> files = new ArrayList<>();
+        List<String> subdirs = new ArrayList<>();
+        List<String> links = new ArrayList<>();
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(dir)) {
+            for (Path child : children) {
+                String name = child.getFileName().toString();
+                // links are listed by what they point to, and marked so each scan can apply its own policy
+                if (Files.isDirectory(child)) {
+                    subdirs.add(name);
+                } else if (Files.isRegularFile(child)) {
+                    files.add(name);
+                } else {
+                    continue;
+                }
+                if (Files.isSymbolicLink(child)) {
+                    links.add(name);
+                }
+            }
+        }
+        Collections.sort(files);
+        Collections.sort(subdirs);
+        Collections.sort(links);
+        Dir listed = new Dir(mtime >= scanStart - RACY_MILLIS ? UNKNOWN : mtime,
+                files.toArray(new String[0]), subdirs.toArray(new String[0]), links.toArray(new String[0]));
+        dirs.put(rel, listed);
+        changed = true;
+        return listed;
+    }
+
+    private static FileIndex load(Path root, File store) {
+        Map<String, Dir> dirs = new HashMap<>();
+        if (store.isFile()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(store)))) {
+                if (in.readInt() == VERSION && root.toString().equals(in.readUTF())) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String rel = in.readUTF();
+                        long mtime = in.readLong();
+                        dirs.put(rel, new Dir(mtime, readNames(in), readNames(in), readNames(in)));
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "can not read " + store + ", scanning from scratch", e);
+                dirs.clear();
+            }
+        }
+        return new FileIndex(root, store, dirs);
+    }
+
+    private void save() {
+        if (!changed) {
+            return;
+        }
+        Map<String, Dir> reachable = reachable();
+        File part = new File(store.getPath() + ".part");
+        try {
+            Files.createDirectories(store.getParentFile().toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(part)))) {
+                out.writeInt(VERSION);
+                out.writeUTF(root.toString());
+                out.writeInt(reachable.size());
+                for (Map.Entry<String, Dir> entry : reachable.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().mtime);
+                    writeNames(out, entry.getValue().files);
+                    writeNames(out, entry.getValue().subdirs);
+                    writeNames(out, entry.getValue().links);
+                }
+            }
+            Files.move(part.toPath(), store.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "can not save " + store, e);
+            part.delete();
+        }
+    }
+
+    /**
+     * @return the directories still listed by their parent, or whose parent
+     * was never listed, so the entries of removed directories do not pile up.
+     */
+    private Map<String, Dir> reachable() {
+        // parents sort before their children
+        Map<String, Dir> sorted = new TreeMap<>(dirs);
+        Map<String, Dir> reachable = new HashMap<>();
+        for (Map.Entry<String, Dir> entry : sorted.entrySet()) {
+            String rel = entry.getKey();
+            if (!rel.isEmpty()) {
+                int slash = rel.lastIndexOf('/');
+                String parent = slash < 0 ? "" : rel.substring(0, slash);
+                if (dirs.containsKey(parent)) {
+                    Dir listing = reachable.get(parent);
+                    if (listing == null || Arrays.binarySearch(listing.subdirs, rel.substring(slash + 1)) < 0) {
+                        continue;
+                    }
+                }
+            }
+            reachable.put(rel, entry.getValue());
+        }
+        return reachable;
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static final class Dir {
+        final long mtime;
+        final String[] files;
+        final String[] subdirs;
+        /**
+         * The files and subdirectories that are symbolic links.
+         */
+        final String[] links;
+
+        Dir(long mtime, String[] files, String[] subdirs, String[] links) {
+            this.mtime = mtime;
+            this.files = files;
+            this.subdirs = subdirs;
+            this.links = links;
+        }
+
+        boolean isLink(String name) {
+            return links.length > 0 && Arrays.binarySearch(links, name) >= 0;
+        }
+    }
+}
@@ -3,7 +3,12 @@ package com.mtvi.plateng.subversion;
 import hudson.Extension;
 import hudson.model.AbstractDescribableImpl;
 import hudson.model.Descriptor;
+import hudson.model.Item;
+import hudson.util.ListBoxModel;
+import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 
 import java.io.Serializable;
 
@@ -36,6 +41,28 @@ public class ImportItem extends AbstractDescribableImpl<ImportItem> implements S
      * The params used to trigger uploading. "," (comma) is the only supported separator.
      */
     private String params;
+    /**
+     * The patterns of the files left out, "," (comma) separated.
+     */
+    private String excludes;
+    /**
+     * Whether the Ant default excludes apply, null for items saved before
+     * they could be turned off.
+     */
+    private Boolean defaultExcludes;
+    /**
+     * Whether linked files and directories are published, null for items
+     * saved before links could be skipped.
+     */
+    private Boolean followSymlinks;
+    /**
+     * The repository the files go to, when it is not the one of the step.
+     */
+    private String svnUrl;
+    /**
+     * The credentials of that repository.
+     */
+    private String credentialsId;
     
 
 
@@ -84,6 +111,11 @@ public class ImportItem extends AbstractDescribableImpl<ImportItem> implements S
         this.path = a.getPath();
         this.localPath = a.getLocalPath();
         this.params = a.getParams();
+        this.excludes = a.getExcludes();
+        this.defaultExcludes = a.isDefaultExcludes();
+        this.followSymlinks = a.isFollowSymlinks();
+        this.svnUrl = a.getSvnUrl();
+        this.credentialsId = a.getCredentialsId();
     }
 
       /**
@@ -162,9 +194,79 @@ public class ImportItem extends AbstractDescribableImpl<ImportItem> implements S
         return params;
     }
 
+    /**
+     * Get the patterns of the files left out
+     * @return the exclude patterns, "," (comma) is the only supported separator.
+     */
+    public String getExcludes() {
+        return excludes;
+    }
+
+    /**
+     * Set the patterns of the files left out
+     * @param excludes
+     */
+    @DataBoundSetter
+    public void setExcludes(String excludes) {
+        this.excludes = excludes;
+    }
+
+    /**
+     * @return whether the Ant default excludes, like .git or .svn, are left out.
+     */
+    public boolean isDefaultExcludes() {
+        return defaultExcludes == null || defaultExcludes;
+    }
+
+    @DataBoundSetter
+    public void setDefaultExcludes(boolean defaultExcludes) {
+        this.defaultExcludes = defaultExcludes;
+    }
+
+    /**
+     * @return whether symbolic links are followed, otherwise they are left out.
+     */
+    public boolean isFollowSymlinks() {
+        return followSymlinks == null || followSymlinks;
+    }
+
+    @DataBoundSetter
+    public void setFollowSymlinks(boolean followSymlinks) {
+        this.followSymlinks = followSymlinks;
+    }
+
+    /**
+     * @return the repository the files go to, empty for the one of the step.
+     */
+    public String getSvnUrl() {
+        return svnUrl;
+    }
+
+    @DataBoundSetter
+    public void setSvnUrl(String svnUrl) {
+        this.svnUrl = svnUrl;
+    }
+
+    /**
+     * @return the credentials of the repository of the item, empty for the
+     * ones of the step.
+     */
+    public String getCredentialsId() {
+        return credentialsId;
+    }
+
+    @DataBoundSetter
+    public void setCredentialsId(String credentialsId) {
+        this.credentialsId = credentialsId;
+    }
+
     @Extension
     public static class DescriptorImpl extends Descriptor<ImportItem> {
         public String getDisplayName() { return "Artifacts"; }
+
+        public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item context, @QueryParameter String svnUrl) {
+            return SVNPublisher.DESCRIPTOR.doFillCredentialsIdItems(context, svnUrl);
+        }
     }
     
 }
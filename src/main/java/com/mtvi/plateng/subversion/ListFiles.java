@@ -1,9 +1,7 @@
 package com.mtvi.plateng.subversion;
 
-import hudson.Util;
 import hudson.remoting.VirtualChannel;
 import jenkins.MasterToSlaveFileCallable;
-import org.apache.tools.ant.types.FileSet;
 
 import java.io.File;
 import java.io.IOException;
@@ -13,29 +11,32 @@ import java.util.Map;
 public class ListFiles extends MasterToSlaveFileCallable<Map<String, String>> {
     private static final long serialVersionUID = 1;
     private final String includes, excludes;
-//        private final boolean defaultExcludes;
-//        private final boolean caseSensitive;
-//        private final boolean followSymlinks;
+    /**
+     * Where the index of scanned directories is kept between builds, or null.
+     */
+    private final String indexDir;
+    private final boolean defaultExcludes;
+    private final boolean caseSensitive;
+    private final boolean followSymlinks;
 
-    ListFiles(String includes, String excludes) {
+    ListFiles(String includes, String excludes, String indexDir) {
+        this(includes, excludes, true, true, true, indexDir);
+    }
+
+    ListFiles(String includes, String excludes, boolean defaultExcludes, boolean caseSensitive, boolean followSymlinks, String indexDir) {
         this.includes = includes;
         this.excludes = excludes;
-//            this.defaultExcludes = defaultExcludes;
-//            this.caseSensitive = caseSensitive;
-//            this.followSymlinks = followSymlinks;
+        this.defaultExcludes = defaultExcludes;
+        this.caseSensitive = caseSensitive;
+        this.followSymlinks = followSymlinks;
+        this.indexDir = indexDir;
     }
 
     @Override
     public Map<String, String> invoke(File basedir, VirtualChannel channel) throws IOException, InterruptedException {
         Map<String, String> r = new HashMap<>();
-
-        FileSet fileSet = Util.createFileSet(basedir, includes, excludes);
-//            fileSet.setDefaultexcludes(defaultExcludes);
-//            fileSet.setCaseSensitive(caseSensitive);
-//            fileSet.setFollowSymlinks(followSymlinks);
-
-        for (String f : fileSet.getDirectoryScanner().getIncludedFiles()) {
-            f = f.replace(File.separatorChar, '/');
+        ScanPatterns patterns = new ScanPatterns(includes, excludes, defaultExcludes, caseSensitive);
+        for (String f : FileIndex.scan(basedir, indexDir == null ? null : new File(indexDir), patterns, followSymlinks)) {
             r.put(f, f);
         }
         return r;
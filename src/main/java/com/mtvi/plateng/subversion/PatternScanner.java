@@ -0,0 +1,88 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Finds the files matched by {@link ScanPatterns} with a single
+ * {@link Files#walkFileTree} pass per start directory. Only the fixed
+ * prefixes of the includes are walked, and subtrees that no include can match
+ * or that are excluded as a whole are skipped without being listed. Used when
+ * there is no directory kept between builds for a {@link FileIndex}.
+ *
+ * @author sekfung
+ */
+final class PatternScanner {
+    private static final Logger LOGGER = Logger.getLogger(PatternScanner.class.getName());
+
+    private PatternScanner() {
+    }
+
+    /**
+     * @param followSymlinks walk linked directories and match linked files,
+     *                       otherwise links are left out, as the Ant scanner does.
+     * @return the matched paths, relative to the root and separated with '/'.
+     */
+    static List<String> scan(Path root, ScanPatterns patterns, boolean followSymlinks) throws IOException {
+        List<String> matched = new ArrayList<>();
+        Set<FileVisitOption> options = followSymlinks ? EnumSet.of(FileVisitOption.FOLLOW_LINKS) : Collections.emptySet();
+        for (String start : patterns.startDirs()) {
+            Path startDir = start.isEmpty() ? root : root.resolve(start);
+            if (!Files.isDirectory(startDir)) {
+                continue;
+            }
+            Files.walkFileTree(startDir, options, Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    String rel = relative(root, dir);
+                    if (!rel.isEmpty() && !patterns.isWalked(rel)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    // without following, a link shows up here whatever it points to
+                    if (attrs.isRegularFile()) {
+                        String rel = relative(root, file);
+                        if (patterns.isIncluded(rel)) {
+                            matched.add(rel);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                    if (e instanceof FileSystemLoopException || e instanceof NoSuchFileException) {
+                        // a link back up the tree, or a file deleted during the walk
+                        LOGGER.log(Level.FINE, "skipping " + file, e);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+            });
+        }
+        return matched;
+    }
+
+    private static String relative(Path root, Path path) {
+        String rel = root.relativize(path).toString();
+        return rel.replace(root.getFileSystem().getSeparator(), "/");
+    }
+}
@@ -0,0 +1,119 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long each phase of a publish took. The phases on the agent are timed
+ * there and reported back with the {@link PublishResult}; a phase run several
+ * times, like the path checks of each item, adds up.
+ * <p>
+ * Along with them goes the CPU time of the threads that worked on the
+ * publish, the calling thread and the {@link Workers} threads. It is measured
+ * per thread, so other builds on the same agent do not count.
+ *
+ * @author sekfung
+ */
+public class PhaseTimings implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public enum Phase {
+        /**
+         * Waiting on the controller behind other publishes to the repository.
+         */
+        QUEUE("queue"),
+        /**
+         * Getting a connection from the pool; the session itself is opened by
+         * the first request, in whatever phase makes it.
+         */
+        CONNECT("connect"),
+        SCAN("scan"),
+        CHECKOUT("checkout"),
+        CHECK_PATH("checkPath"),
+        COPY("copy"),
+        ADD("add"),
+        COMMIT("commit");
+
+        private final String id;
+
+        Phase(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+    }
+
+    private final long[] nanos = new long[Phase.values().length];
+    private long cpuNanos;
+    private boolean cpuMeasured;
+    private boolean cpuUnknown;
+
+    /**
+     * Add the time elapsed since {@code start}, a {@link System#nanoTime()}, to the phase.
+     *
+     * @return the current {@link System#nanoTime()}, the start of the next phase.
+     */
+    long record(Phase phase, long start) {
+        long now = System.nanoTime();
+        nanos[phase.ordinal()] += now - start;
+        return now;
+    }
+
+    void add(Phase phase, long millis) {
+        nanos[phase.ordinal()] += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or -1 when
+     * the JVM does not measure it.
+     */
+    static long threadCpuTime() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    /**
+     * Add the CPU time the current thread used since {@code start}, a
+     * {@link #threadCpuTime()} of the same thread.
+     */
+    synchronized void addCpu(long start) {
+        long now = threadCpuTime();
+        if (start < 0 || now < 0) {
+            cpuUnknown = true;
+        } else {
+            cpuNanos += now - start;
+        }
+        cpuMeasured = true;
+    }
+
+    /**
+     * @return the CPU time of the threads that worked on the publish, or -1
+     * when it was not measured.
+     */
+    public synchronized long getCpuMillis() {
+        return cpuMeasured && !cpuUnknown ? TimeUnit.NANOSECONDS.toMillis(cpuNanos) : -1;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getMillis(Phase phase) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos[phase.ordinal()]);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            if (nanos[phase.ordinal()] > 0) {
+                s.append(s.length() == 0 ? "" : ", ").append(phase.getId()).append(' ').append(getMillis(phase)).append(" ms");
+            }
+        }
+        return s.toString();
+    }
+}
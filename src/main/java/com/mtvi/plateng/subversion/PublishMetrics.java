@@ -0,0 +1,99 @@
+package com.mtvi.plateng.subversion;
+
+import com.codahale.metrics.MetricRegistry;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Records what the publishes did in the registry of the Metrics plugin, when
+ * it is installed, on the controller. The metrics are named
+ * {@code svnpublisher.<host>.<metric>}, the host of the repository standing in
+ * for a tag since the registry has none:
+ * <ul>
+ * <li>a timer per {@link PhaseTimings.Phase phase}, {@code queue} to {@code commit};</li>
+ * <li>the counters {@code bytes.sent}, {@code files.added}, {@code files.modified}
+ * and {@code retries};</li>
+ * <li>the meters {@code publishes} and {@code failures};</li>
+ * <li>the gauge {@code queue.depth}, the publishes running or waiting in the
+ * {@link PublishQueue} lanes of the host.</li>
+ * </ul>
+ * Every phase is also logged at FINE level, with or without the plugin.
+ *
+ * @author sekfung
+ */
+final class PublishMetrics {
+    private static final Logger LOGGER = Logger.getLogger(PublishMetrics.class.getName());
+    static final String PREFIX = "svnpublisher";
+
+    private PublishMetrics() {
+    }
+
+    static void published(String url, PublishResult result) {
+        String host = hostOf(url);
+        LOGGER.fine(() -> url + ": " + result.getTimings() + ", " + result.getBytesSent() + " bytes sent, "
+                + result.getFilesAdded() + " files added, " + result.getFilesModified() + " modified, "
+                + (result.getAttempts() - 1) + " retries");
+        if (isAvailable()) {
+            Registry.published(host, result);
+        }
+    }
+
+    static void failed(String url) {
+        if (isAvailable()) {
+            Registry.failed(hostOf(url));
+        }
+    }
+
+    private static boolean isAvailable() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return jenkins != null && jenkins.getPlugin("metrics") != null;
+    }
+
+    /**
+     * @return the host of the repository, as a single segment of a metric name.
+     */
+    static String hostOf(String url) {
+        String host;
+        try {
+            host = SVNURL.parseURIDecoded(url).getHost();
+        } catch (SVNException e) {
+            host = null;
+        }
+        if (host == null || host.isEmpty()) {
+            // file:// repositories
+            return "local";
+        }
+        return host.replace('.', '_');
+    }
+
+    /**
+     * Kept apart so that the classes of the Metrics plugin are only loaded
+     * once it is known to be installed.
+     */
+    private static final class Registry {
+        static void published(String host, PublishResult result) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            registry.gauge(MetricRegistry.name(PREFIX, host, "queue", "depth"), () -> () -> PublishQueue.get().getDepth(host));
+            for (PhaseTimings.Phase phase : PhaseTimings.Phase.values()) {
+                long nanos = result.getTimings().getNanos(phase);
+                if (nanos > 0) {
+                    registry.timer(MetricRegistry.name(PREFIX, host, phase.getId())).update(nanos, TimeUnit.NANOSECONDS);
+                }
+            }
+            registry.counter(MetricRegistry.name(PREFIX, host, "bytes", "sent")).inc(result.getBytesSent());
+            registry.counter(MetricRegistry.name(PREFIX, host, "files", "added")).inc(result.getFilesAdded());
+            registry.counter(MetricRegistry.name(PREFIX, host, "files", "modified")).inc(result.getFilesModified());
+            registry.counter(MetricRegistry.name(PREFIX, host, "retries")).inc(Math.max(0, result.getAttempts() - 1));
+            registry.meter(MetricRegistry.name(PREFIX, host, "publishes")).mark();
+        }
+
+        static void failed(String host) {
+            Metrics.metricRegistry().meter(MetricRegistry.name(PREFIX, host, "failures")).mark();
+        }
+    }
+}
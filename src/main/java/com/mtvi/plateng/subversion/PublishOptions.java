@@ -0,0 +1,128 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.Serializable;
+
+/**
+ * The settings of a publish that travel to the agent along with the items.
+ *
+ * @author sekfung
+ */
+public class PublishOptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private String strategy = Constants.ALWAYS_COMMIT;
+    private String mode = Constants.WORKING_COPY_MODE;
+    private boolean keepWorkingCopy;
+    private int workers = 1;
+    private long deltaThreshold;
+    private String cacheDir;
+    private String workingCopyName = Constants.PLUGIN_NAME;
+    private int retries = 3;
+    private long streamingThreshold;
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public void setStrategy(String strategy) {
+        this.strategy = strategy;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @return whether the items are committed without a working copy, which
+     * mirror mode does too.
+     */
+    public boolean isDirectMode() {
+        return Constants.DIRECT_MODE.equalsIgnoreCase(mode) || isMirrorMode();
+    }
+
+    public boolean isMirrorMode() {
+        return Constants.MIRROR_MODE.equalsIgnoreCase(mode);
+    }
+
+    public boolean isKeepWorkingCopy() {
+        return keepWorkingCopy;
+    }
+
+    public void setKeepWorkingCopy(boolean keepWorkingCopy) {
+        this.keepWorkingCopy = keepWorkingCopy;
+    }
+
+    /**
+     * @return the number of threads scanning, hashing and copying files.
+     */
+    public int getWorkers() {
+        return workers;
+    }
+
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /**
+     * @return the smallest size in bytes of a modified file sent as a delta
+     * against its committed version, 0 when deltas are disabled.
+     */
+    public long getDeltaThreshold() {
+        return deltaThreshold;
+    }
+
+    public void setDeltaThreshold(long deltaThreshold) {
+        this.deltaThreshold = Math.max(0, deltaThreshold);
+    }
+
+    /**
+     * @return the agent directory kept between builds for cached data, or null.
+     */
+    public String getCacheDir() {
+        return cacheDir;
+    }
+
+    public void setCacheDir(String cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return the size in bytes from which a matched file makes a working
+     * copy publish stream its files with a direct commit instead, 0 when it
+     * never does.
+     */
+    public long getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    public void setStreamingThreshold(long streamingThreshold) {
+        this.streamingThreshold = Math.max(0, streamingThreshold);
+    }
+
+    /**
+     * @return the commits tried again after conflicting with concurrent ones.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    public void setRetries(int retries) {
+        this.retries = Math.max(0, retries);
+    }
+
+    /**
+     * @return the directory of the workspace holding the working copy, one
+     * per repository published to.
+     */
+    public String getWorkingCopyName() {
+        return workingCopyName;
+    }
+
+    public void setWorkingCopyName(String workingCopyName) {
+        this.workingCopyName = workingCopyName;
+    }
+}
@@ -0,0 +1,156 @@
+package com.mtvi.plateng.subversion;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lines up the publishes of concurrent builds going to the same repository,
+ * on the controller, so they commit one after another in arrival order
+ * instead of racing each other into out of date errors. Publishes to other
+ * repositories are not held up.
+ * <p>
+ * A lane is keyed on the root of the repository, so that publishes to
+ * different paths of one repository still line up. The root of a url is
+ * asked for the first time the url is published to and remembered; when it
+ * can not be told, the url stands in for it. A lane is dropped as soon as no
+ * publish is running or waiting in it.
+ * <p>
+ * The queue can be turned off with the
+ * {@code com.mtvi.plateng.subversion.PublishQueue.disabled} system property.
+ *
+ * @author sekfung
+ */
+final class PublishQueue {
+    private static final Logger LOGGER = Logger.getLogger(PublishQueue.class.getName());
+    static final boolean DISABLED = Boolean.getBoolean(PublishQueue.class.getName() + ".disabled");
+
+    private static final PublishQueue INSTANCE = new PublishQueue();
+
+    private final ConcurrentMap<String, Lane> lanes = new ConcurrentHashMap<>();
+    /**
+     * The repository root of each url published to.
+     */
+    private final ConcurrentMap<String, String> roots = new ConcurrentHashMap<>();
+
+    interface RootLookup {
+        /**
+         * @return the url of the root of the repository.
+         */
+        String getRoot() throws Exception;
+    }
+
+    static PublishQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param host a host as named by {@link PublishMetrics#hostOf(String)}.
+     * @return the publishes to the repositories of the host running or waiting
+     * for their turn.
+     */
+    int getDepth(String host) {
+        int depth = 0;
+        for (Map.Entry<String, Lane> lane : lanes.entrySet()) {
+            if (PublishMetrics.hostOf(lane.getKey()).equals(host)) {
+                depth += lane.getValue().depth;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Wait for the turn of a publish to the repository.
+     *
+     * @param lookup tells the root of the repository of the url, when it is not known yet.
+     * @return the turn, to be closed once the publish is done.
+     */
+    Turn enter(String url, RootLookup lookup) throws InterruptedException {
+        if (DISABLED) {
+            return new Turn(null, null, 0, 0);
+        }
+        String key = laneOf(url, lookup);
+        long start = System.nanoTime();
+        int[] ahead = new int[1];
+        Lane lane = lanes.compute(key, (k, l) -> {
+            Lane joined = l == null ? new Lane() : l;
+            ahead[0] = joined.depth++;
+            return joined;
+        });
+        try {
+            lane.permit.acquire();
+        } catch (InterruptedException e) {
+            leave(key);
+            throw e;
+        }
+        return new Turn(key, lane, ahead[0], (System.nanoTime() - start) / 1000000);
+    }
+
+    private String laneOf(String url, RootLookup lookup) {
+        String root = roots.get(url);
+        if (root != null) {
+            return root;
+        }
+        try {
+            root = lookup.getRoot();
+        } catch (Exception e) {
+            // not remembered, the next publish asks again
+            LOGGER.log(Level.FINE, "can not tell the repository root of " + url + ", queueing on the url", e);
+            return url;
+        }
+        roots.put(url, root);
+        return root;
+    }
+
+    /**
+     * Count a publish out of its lane, dropping the lane once it is empty.
+     */
+    private void leave(String key) {
+        lanes.computeIfPresent(key, (k, l) -> --l.depth == 0 ? null : l);
+    }
+
+    private static final class Lane {
+        // fair, so the builds commit in the order they asked
+        private final Semaphore permit = new Semaphore(1, true);
+        /**
+         * Only changed while the lane is computed in the map.
+         */
+        private volatile int depth;
+    }
+
+    static final class Turn implements AutoCloseable {
+        private final String key;
+        private final Lane lane;
+        private final int ahead;
+        private final long waitMillis;
+
+        private Turn(String key, Lane lane, int ahead, long waitMillis) {
+            this.key = key;
+            this.lane = lane;
+            this.ahead = ahead;
+            this.waitMillis = waitMillis;
+        }
+
+        /**
+         * @return the publishes that were running or waiting when this one arrived.
+         */
+        int getAhead() {
+            return ahead;
+        }
+
+        long getWaitMillis() {
+            return waitMillis;
+        }
+
+        @Override
+        public void close() {
+            if (lane != null) {
+                lane.permit.release();
+                INSTANCE.leave(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.model.Run;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * What the publishes of a build committed: per repository the revision, the
+ * time each phase took and the files and bytes of each item. The summary is
+ * kept with the build and exported over the remote API; the manifest of the
+ * files, whether each was added, modified, deleted or left unchanged, its
+ * path, size and MD5 checksum, is kept in a compressed file of the build
+ * directory and served as tab separated text from
+ * {@code svnpublisher/repository/<n>/manifest}.
+ *
+ * @author sekfung
+ */
+@ExportedBean
+public class PublishReport implements RunAction2 {
+    static final String URL_NAME = "svnpublisher";
+    /**
+     * Version 2 added the action of each file, version 1 only listed the
+     * files sent.
+     */
+    private static final int MANIFEST_VERSION = 2;
+
+    private transient Run<?, ?> run;
+    private final List<Repository> repositories = new ArrayList<>();
+
+    /**
+     * Add a committed publish to the report of the build, creating the report
+     * on the first one.
+     */
+    static void record(Run<?, ?> run, String url, List<ImportItem> items, PublishResult result) throws IOException {
+        PublishReport report;
+        synchronized (PublishReport.class) {
+            report = run.getAction(PublishReport.class);
+            if (report == null) {
+                report = new PublishReport();
+                run.addAction(report);
+            }
+        }
+        report.add(url, items, result);
+        run.save();
+    }
+
+    private synchronized void add(String url, List<ImportItem> items, PublishResult result) throws IOException {
+        int index = repositories.size();
+        writeManifest(manifestFile(index), result.getFiles());
+        Repository repository = new Repository(url, result, items);
+        repository.report = this;
+        repository.index = index;
+        repositories.add(repository);
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    @Exported
+    public synchronized List<Repository> getRepositories() {
+        return new ArrayList<>(repositories);
+    }
+
+    /**
+     * Bound to {@code repository/<n>}.
+     */
+    public synchronized Repository getRepository(int index) {
+        return index >= 0 && index < repositories.size() ? repositories.get(index) : null;
+    }
+
+    @Override
+    public String getIconFileName() {
+        return "notepad.png";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "SVN Publish Report";
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    @Override
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    @Override
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+        for (int i = 0; i < repositories.size(); i++) {
+            repositories.get(i).report = this;
+            repositories.get(i).index = i;
+        }
+    }
+
+    private File manifestFile(int index) {
+        return new File(new File(run.getRootDir(), URL_NAME), index + ".manifest.gz");
+    }
+
+    private static void writeManifest(File file, List<PublishedFile> files) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("mkdir file failed: " + dir);
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(file))))) {
+            out.writeInt(MANIFEST_VERSION);
+            out.writeInt(files.size());
+            for (PublishedFile f : files) {
+                out.writeByte(f.action.ordinal());
+                out.writeInt(f.item);
+                out.writeUTF(f.path);
+                out.writeLong(f.size);
+                out.writeUTF(f.checksum == null ? "" : f.checksum);
+            }
+        }
+    }
+
+    private static List<PublishedFile> readManifest(File file) throws IOException {
+        if (!file.isFile()) {
+            return Collections.emptyList();
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            int version = in.readInt();
+            if (version < 1 || version > MANIFEST_VERSION) {
+                throw new IOException("unknown manifest version in " + file);
+            }
+            PublishedFile.Action[] actions = PublishedFile.Action.values();
+            int count = in.readInt();
+            List<PublishedFile> files = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                PublishedFile.Action action = version == 1 ? null : actions[in.readUnsignedByte()];
+                int item = in.readInt();
+                String path = in.readUTF();
+                long size = in.readLong();
+                String checksum = in.readUTF();
+                files.add(new PublishedFile(action, item, path, size, checksum.isEmpty() ? null : checksum));
+            }
+            return files;
+        }
+    }
+
+    /**
+     * A commit to one repository.
+     */
+    @ExportedBean(defaultVisibility = 2)
+    public static class Repository {
+        private transient PublishReport report;
+        private transient int index;
+        private final String url;
+        private final long revision;
+        private final int attempts;
+        private final long bytesSent;
+        private final int filesAdded;
+        private final int filesModified;
+        private final int filesDeleted;
+        /**
+         * Milliseconds by phase id, in the order of the phases.
+         */
+        private final Map<String, Long> durations = new LinkedHashMap<>();
+        private final List<ItemReport> items = new ArrayList<>();
+
+        Repository(String url, PublishResult result, List<ImportItem> importItems) {
+            this.url = url;
+            this.revision = result.getRevision();
+            this.attempts = result.getAttempts();
+            this.bytesSent = result.getBytesSent();
+            this.filesAdded = result.getFilesAdded();
+            this.filesModified = result.getFilesModified();
+            this.filesDeleted = result.getFilesDeleted();
+            for (PhaseTimings.Phase phase : PhaseTimings.Phase.values()) {
+                durations.put(phase.getId(), result.getTimings().getMillis(phase));
+            }
+            for (ImportItem item : importItems) {
+                items.add(new ItemReport(item));
+            }
+            for (PublishedFile f : result.getFiles()) {
+                if ((f.action == null || f.action.isSent()) && f.item >= 0 && f.item < items.size()) {
+                    items.get(f.item).count(f.size);
+                }
+            }
+        }
+
+        @Exported
+        public String getUrl() {
+            return url;
+        }
+
+        @Exported
+        public long getRevision() {
+            return revision;
+        }
+
+        @Exported
+        public int getAttempts() {
+            return attempts;
+        }
+
+        @Exported
+        public long getBytesSent() {
+            return bytesSent;
+        }
+
+        @Exported
+        public int getFilesAdded() {
+            return filesAdded;
+        }
+
+        @Exported
+        public int getFilesModified() {
+            return filesModified;
+        }
+
+        @Exported
+        public int getFilesDeleted() {
+            return filesDeleted;
+        }
+
+        /**
+         * @return the milliseconds each phase took, by phase id.
+         */
+        @Exported
+        public Map<String, Long> getDurations() {
+            return Collections.unmodifiableMap(durations);
+        }
+
+        @Exported
+        public List<ItemReport> getItems() {
+            return Collections.unmodifiableList(items);
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * The files as tab separated lines of action, path, size and MD5
+         * checksum, the paths relative to the url of the repository. The
+         * action is empty in the manifests of builds from before it was kept,
+         * and the checksum where it is not known.
+         */
+        public void doManifest(StaplerRequest req, StaplerResponse rsp) throws IOException {
+            List<PublishedFile> files = readManifest(report.manifestFile(index));
+            rsp.setContentType("text/plain;charset=UTF-8");
+            try (PrintWriter w = rsp.getWriter()) {
+                for (PublishedFile f : files) {
+                    w.print(f.action == null ? "" : f.action.name().toLowerCase(Locale.ENGLISH));
+                    w.print('\t');
+                    w.print(f.path);
+                    w.print('\t');
+                    w.print(f.size);
+                    w.print('\t');
+                    w.println(f.checksum == null ? "" : f.checksum);
+                }
+            }
+        }
+    }
+
+    /**
+     * What one item of a repository committed.
+     */
+    @ExportedBean(defaultVisibility = 3)
+    public static class ItemReport {
+        private final String path;
+        private final String localPath;
+        private final String pattern;
+        private int files;
+        private long bytes;
+
+        ItemReport(ImportItem item) {
+            this.path = item.getPath();
+            this.localPath = item.getLocalPath();
+            this.pattern = item.getPattern();
+        }
+
+        private void count(long size) {
+            files++;
+            bytes += size;
+        }
+
+        @Exported
+        public String getPath() {
+            return path;
+        }
+
+        @Exported
+        public String getLocalPath() {
+            return localPath;
+        }
+
+        @Exported
+        public String getPattern() {
+            return pattern;
+        }
+
+        @Exported
+        public int getFiles() {
+            return files;
+        }
+
+        @Exported
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What a publish did, as reported back from the agent.
+ *
+ * @author sekfung
+ */
+public class PublishResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long revision;
+    private final int changedFiles;
+    private final int attempts;
+    private long bytesSent;
+    private long compressedBytes;
+    private int filesAdded;
+    private int filesModified;
+    private int filesDeleted;
+    private PhaseTimings timings = new PhaseTimings();
+    private List<PublishedFile> files = Collections.emptyList();
+
+    PublishResult(long revision, int changedFiles) {
+        this(revision, changedFiles, 1);
+    }
+
+    PublishResult(long revision, int changedFiles, int attempts) {
+        this.revision = revision;
+        this.changedFiles = changedFiles;
+        this.attempts = attempts;
+    }
+
+    PublishResult withTransfer(Transfer transfer) {
+        this.bytesSent = transfer.getBytes();
+        this.compressedBytes = transfer.getCompressedBytes();
+        this.filesAdded = transfer.getAdded();
+        this.filesModified = transfer.getModified();
+        this.filesDeleted = transfer.getDeleted();
+        this.files = transfer.getFiles();
+        return this;
+    }
+
+    PublishResult withTimings(PhaseTimings timings) {
+        this.timings = timings;
+        return this;
+    }
+
+    static PublishResult nothingCommitted() {
+        return new PublishResult(-1, 0);
+    }
+
+    /**
+     * @return the committed revision, or -1 when nothing was committed.
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    public boolean isCommitted() {
+        return revision >= 0;
+    }
+
+    /**
+     * @return the number of files added, modified or deleted by the commit.
+     */
+    public int getChangedFiles() {
+        return changedFiles;
+    }
+
+    /**
+     * @return the bytes of file content sent, deltas counting for their size.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return the part of the bytes sent that belongs to already compressed files.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    public int getFilesAdded() {
+        return filesAdded;
+    }
+
+    public int getFilesModified() {
+        return filesModified;
+    }
+
+    /**
+     * @return the files deleted by a mirror mode publish.
+     */
+    public int getFilesDeleted() {
+        return filesDeleted;
+    }
+
+    public PhaseTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return the files sent, deleted and left unchanged, in the order they
+     * were gone through.
+     */
+    List<PublishedFile> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the CPU time the agent spent on the publish, or -1 when the JVM
+     * does not tell.
+     */
+    public long getCpuMillis() {
+        return timings.getCpuMillis();
+    }
+
+    /**
+     * @return the commits tried, more than one when concurrent commits got in the way.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+}
@@ -0,0 +1,106 @@
+package com.mtvi.plateng.subversion;
+
+import com.cloudbees.plugins.credentials.Credentials;
+import hudson.EnvVars;
+import hudson.model.TaskListener;
+import jenkins.security.MasterToSlaveCallable;
+import org.tmatesoft.svn.core.SVNURL;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Runs a whole publish on the agent that holds the workspace: checkout,
+ * scanning, copying, adding and committing all happen in this one call.
+ *
+ * @author sekfung
+ */
+class PublishTask extends MasterToSlaveCallable<PublishResult, Throwable> {
+    private static final long serialVersionUID = 1L;
+    private final SVNURL svnPath;
+    private final Credentials credentials;
+    private final List<ImportItem> items;
+    private final EnvVars envVars;
+    private final PublishOptions options;
+    private final File workspace;
+    private final String commitMessage;
+    private final TaskListener listener;
+
+    PublishTask(SVNURL svnPath, Credentials credentials, List<ImportItem> items, EnvVars envVars, PublishOptions options, File workspace, String commitMessage, TaskListener listener) {
+        this.svnPath = svnPath;
+        this.credentials = credentials;
+        this.items = items;
+        this.envVars = envVars;
+        this.options = options;
+        this.workspace = workspace;
+        this.commitMessage = commitMessage;
+        this.listener = listener;
+    }
+
+    @Override
+    public PublishResult call() throws Throwable {
+        PhaseTimings timings = new PhaseTimings();
+        long cpuStart = PhaseTimings.threadCpuTime();
+        try {
+            return publish(timings);
+        } finally {
+            timings.addCpu(cpuStart);
+        }
+    }
+
+    private PublishResult publish(PhaseTimings timings) throws Throwable {
+        long start = System.nanoTime();
+        // scanned once, before a connection is held
+        List<List<File>> matches;
+        try (Workers workers = new Workers(options.getWorkers(), timings)) {
+            matches = workers.map(items, item -> Utils.findItemFiles(item, workspace, options.getCacheDir()));
+        }
+        start = timings.record(PhaseTimings.Phase.SCAN, start);
+        boolean direct = options.isDirectMode();
+        if (!direct) {
+            File large = findLargeFile(matches);
+            if (large != null) {
+                listener.getLogger().println(large + " is at least " + (options.getStreamingThreshold() >> 20)
+                        + " MB, publishing to " + svnPath + " with a direct commit instead of the working copy");
+                direct = true;
+            }
+        }
+        try (ConnectionPool.Lease lease = ConnectionPool.get().borrow(svnPath, credentials)) {
+            timings.record(PhaseTimings.Phase.CONNECT, start);
+            try {
+                if (direct) {
+                    DirectCommitter committer = new DirectCommitter(lease.getRepository(), workspace, options, envVars, timings, listener.getLogger());
+                    return committer.commit(items, matches, commitMessage).withTimings(timings);
+                }
+                WorkingCopyPublisher publisher = new WorkingCopyPublisher(lease.getManager(), lease.getRepository(), workspace, options, envVars, timings);
+                return publisher.publish(items, matches, commitMessage).withTimings(timings);
+            } catch (Throwable t) {
+                lease.invalidate();
+                throw t;
+            }
+        }
+    }
+
+    /**
+     * Find a matched file large enough to be streamed rather than copied into
+     * the working copy, where it would be stored twice.
+     *
+     * @return the file, or null when there is none.
+     */
+    private File findLargeFile(List<List<File>> matches) {
+        long threshold = options.getStreamingThreshold();
+        if (threshold <= 0) {
+            return null;
+        }
+        for (int i = 0; i < items.size(); i++) {
+            File localPath = new File(workspace, items.get(i).getLocalPath());
+            for (File f : matches.get(i)) {
+                File file = new File(localPath, f.getPath());
+                if (file.length() >= threshold) {
+                    return file;
+                }
+            }
+        }
+        return null;
+    }
+}
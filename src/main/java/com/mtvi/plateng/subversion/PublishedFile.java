@@ -0,0 +1,59 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.Serializable;
+
+/**
+ * A file a publish went through, as listed in the manifest of the build.
+ *
+ * @author sekfung
+ */
+final class PublishedFile implements Serializable {
+    private static final long serialVersionUID = 2L;
+
+    /**
+     * What the publish did with a file.
+     */
+    enum Action {
+        ADDED,
+        MODIFIED,
+        /**
+         * Deleted by a mirror mode publish, the row has no size nor checksum.
+         */
+        DELETED,
+        /**
+         * Matched but left out of the commit, its content was already there.
+         */
+        UNCHANGED;
+
+        boolean isSent() {
+            return this == ADDED || this == MODIFIED;
+        }
+    }
+
+    /**
+     * What the publish did with the file, null in the manifests written
+     * before the actions were kept, which only listed the files sent.
+     */
+    final Action action;
+    /**
+     * The index of the item that matched the file, among the items of its repository.
+     */
+    final int item;
+    /**
+     * The path in the repository, relative to its url.
+     */
+    final String path;
+    final long size;
+    /**
+     * The MD5 checksum of the content, in hex, or null when it is not known.
+     */
+    final String checksum;
+
+    PublishedFile(Action action, int item, String path, long size, String checksum) {
+        this.action = action;
+        this.item = item;
+        this.path = path;
+        this.size = size;
+        this.checksum = checksum;
+    }
+}
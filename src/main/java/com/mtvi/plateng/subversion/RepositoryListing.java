@@ -0,0 +1,80 @@
+package com.mtvi.plateng.subversion;
+
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.SVNRepository;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Answers what lives at a path of the repository at one pinned revision.
+ * Instead of a {@code checkPath} per path, each distinct parent directory is
+ * listed once and every later question about its children is answered from
+ * that listing, so resolving the targets of many items costs one request per
+ * directory rather than one per path. Paths are relative to the repository
+ * location.
+ *
+ * @author sekfung
+ */
+class RepositoryListing {
+    private static final int ENTRY_FIELDS = SVNDirEntry.DIRENT_KIND | SVNDirEntry.DIRENT_SIZE;
+
+    private final SVNRepository repository;
+    private final long revision;
+    /**
+     * The listed directories, a null listing marks a directory that does not exist.
+     */
+    private final Map<String, Map<String, SVNDirEntry>> dirs = new HashMap<>();
+
+    RepositoryListing(SVNRepository repository, long revision) {
+        this.repository = repository;
+        this.revision = revision;
+    }
+
+    SVNNodeKind kindOf(String path) throws SVNException {
+        if (path.isEmpty()) {
+            return SVNNodeKind.DIR;
+        }
+        SVNDirEntry entry = entry(path);
+        return entry == null ? SVNNodeKind.NONE : entry.getKind();
+    }
+
+    /**
+     * @return the entry at the path, or null when there is nothing there.
+     */
+    SVNDirEntry entry(String path) throws SVNException {
+        Map<String, SVNDirEntry> listing = list(SVNPathUtil.removeTail(path));
+        return listing == null ? null : listing.get(SVNPathUtil.tail(path));
+    }
+
+    /**
+     * @return the entries of the directory by name, empty when it does not exist.
+     */
+    Map<String, SVNDirEntry> children(String dir) throws SVNException {
+        Map<String, SVNDirEntry> listing = list(dir);
+        return listing == null ? Collections.emptyMap() : listing;
+    }
+
+    private Map<String, SVNDirEntry> list(String dir) throws SVNException {
+        if (dirs.containsKey(dir)) {
+            return dirs.get(dir);
+        }
+        Map<String, SVNDirEntry> listing = null;
+        // a missing parent means a missing directory, no need to ask
+        if (kindOf(dir) == SVNNodeKind.DIR) {
+            Map<String, SVNDirEntry> entries = new HashMap<>();
+            repository.getDir(dir, revision, null, ENTRY_FIELDS, entry -> {
+                if (!entry.getName().isEmpty()) {
+                    entries.put(entry.getName(), entry);
+                }
+            });
+            listing = entries;
+        }
+        dirs.put(dir, listing);
+        return listing;
+    }
+}
@@ -17,6 +17,7 @@ import hudson.model.Item;
 import hudson.model.Run;
 import hudson.model.TaskListener;
 import hudson.security.ACL;
+import hudson.slaves.WorkspaceList;
 import hudson.tasks.*;
 import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
@@ -24,14 +25,21 @@ import jenkins.tasks.SimpleBuildStep;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNURL;
 
 import javax.annotation.Nonnull;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -44,11 +52,22 @@ public class SVNPublisher extends Recorder implements SimpleBuildStep {
 
     public static final DescriptorImpl DESCRIPTOR = new DescriptorImpl();
     private static final Logger LOGGER = Logger.getLogger(SVNPublisher.class.getName());
+    /**
+     * The most repositories one step publishes to at once, the others wait for
+     * one of them to finish.
+     */
+    static final int MAX_CONCURRENT_REPOSITORIES = Integer.getInteger(SVNPublisher.class.getName() + ".maxConcurrentRepositories", 4);
 
     private String svnUrl;
     private String credentialsId;
     private String commitMessage;
     private String strategy;
+    private String mode;
+    private boolean keepWorkingCopy;
+    private int workers = 1;
+    private int deltaThreshold;
+    private Integer retries;
+    private int streamingThreshold;
     private List<ImportItem> artifacts = Lists.newArrayList();
 
     @DataBoundConstructor
@@ -92,6 +111,71 @@ public class SVNPublisher extends Recorder implements SimpleBuildStep {
         return strategy;
     }
 
+    public String getMode() {
+        return mode == null ? Constants.WORKING_COPY_MODE : mode;
+    }
+
+    @DataBoundSetter
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public boolean isKeepWorkingCopy() {
+        return keepWorkingCopy;
+    }
+
+    @DataBoundSetter
+    public void setKeepWorkingCopy(boolean keepWorkingCopy) {
+        this.keepWorkingCopy = keepWorkingCopy;
+    }
+
+    public int getWorkers() {
+        return Math.max(1, workers);
+    }
+
+    @DataBoundSetter
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
+    /**
+     * @return the smallest file size in megabytes sent as a delta, 0 when disabled.
+     */
+    public int getDeltaThreshold() {
+        return deltaThreshold;
+    }
+
+    @DataBoundSetter
+    public void setDeltaThreshold(int deltaThreshold) {
+        this.deltaThreshold = deltaThreshold;
+    }
+
+    /**
+     * @return the size in megabytes from which files are streamed with a
+     * direct commit rather than copied into the working copy, 0 when disabled.
+     */
+    public int getStreamingThreshold() {
+        return streamingThreshold;
+    }
+
+    @DataBoundSetter
+    public void setStreamingThreshold(int streamingThreshold) {
+        this.streamingThreshold = streamingThreshold;
+    }
+
+    /**
+     * @return the commits tried again after conflicting with concurrent ones,
+     * 3 for steps saved before it could be set.
+     */
+    public int getRetries() {
+        return retries == null ? 3 : Math.max(0, retries);
+    }
+
+    @DataBoundSetter
+    public void setRetries(int retries) {
+        this.retries = retries;
+    }
+
     private List<ImportItem> cloneItems(List<ImportItem> oldArtifacts) {
         List<ImportItem> newArts = Lists.newArrayList();
         if (oldArtifacts != null) {
@@ -115,36 +199,150 @@ public class SVNPublisher extends Recorder implements SimpleBuildStep {
             if (!filePath.exists()) {
                 throw new IOException("io error");
             }
-            SVNWorker repo = new SVNWorker.Builder()
-                    .svnUrl(Utils.replaceVars(envVars, this.svnUrl))
+            if (Constants.NEVER_COMMIT.equalsIgnoreCase(strategy)) {
+                return;
+            }
+            List<ImportItem> artifact = Utils.parseAndReplaceEnvVars(envVars, cloneItems(this.artifacts));
+            artifact = Utils.triggeredItems(artifact, strategy, envVars, buildLogger);
+            if (artifact.isEmpty()) {
+                buildLogger.println("No artifact is triggered, nothing to publish");
+                return;
+            }
+            List<RepositoryGroup> groups = groupByRepository(artifact, Utils.replaceVars(envVars, this.svnUrl));
+            List<String> failures;
+            try (Workers workers = new Workers(Math.min(groups.size(), MAX_CONCURRENT_REPOSITORIES))) {
+                failures = workers.map(groups, group -> publish(group, run, filePath, launcher, envVars, taskListener, groups.size() > 1));
+            }
+            failures.removeIf(Objects::isNull);
+            if (!failures.isEmpty()) {
+                throw new AbortException(String.join("\n", failures));
+            }
+        } catch (SVNPublisherException | IOException | InterruptedException ex) {
+            buildLogger.println(ex.getMessage());
+            throw new AbortException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Group the items by the repository they go to, the one of the step
+     * unless they name their own, so each repository gets a single commit.
+     */
+    private List<RepositoryGroup> groupByRepository(List<ImportItem> items, String defaultUrl) {
+        Map<String, RepositoryGroup> groups = new LinkedHashMap<>();
+        for (ImportItem item : items) {
+            String url = Util.fixEmptyAndTrim(item.getSvnUrl());
+            String credentials = Util.fixEmptyAndTrim(item.getCredentialsId());
+            RepositoryGroup group = new RepositoryGroup(url == null ? defaultUrl : url, credentials == null ? this.credentialsId : credentials);
+            groups.computeIfAbsent(group.key(), k -> group).items.add(item);
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * Publish the items of one repository.
+     *
+     * @return the reason the publish failed, or null.
+     */
+    private String publish(RepositoryGroup group, Run<?, ?> run, FilePath filePath, Launcher launcher, EnvVars envVars, TaskListener taskListener, boolean named) throws IOException, InterruptedException {
+        PrintStream buildLogger = taskListener.getLogger();
+        String prefix = named ? "[" + group.url + "] " : "";
+        // the repository of the step keeps the working copy and cache it always had
+        String name = group.url.equals(Utils.replaceVars(envVars, this.svnUrl)) && Objects.equals(group.credentialsId, this.credentialsId)
+                ? Constants.PLUGIN_NAME
+                : Constants.PLUGIN_NAME + "-" + Checksums.toHex(Checksums.newDigest(Checksums.MD5).digest(group.key().getBytes(StandardCharsets.UTF_8))).substring(0, 8);
+        SVNWorker repo = null;
+        try {
+            repo = new SVNWorker.Builder()
+                    .svnUrl(group.url)
                     .workingCopy(filePath.getRemote(), launcher)
+                    .workingCopyName(name)
                     .strategy(strategy)
+                    .mode(getMode())
+                    .keepWorkingCopy(keepWorkingCopy)
+                    .workers(getWorkers())
+                    .deltaThreshold(deltaThreshold * 1024L * 1024L)
+                    .retries(getRetries())
+                    .streamingThreshold(streamingThreshold * 1024L * 1024L)
+                    .cacheDir(WorkspaceList.tempDir(filePath).child(name).getRemote())
                     .launcher(launcher)
-                    .credentials(DescriptorImpl.lookupCredentials(this.svnUrl, run.getParent(), this.credentialsId))
+                    .credentials(DescriptorImpl.lookupCredentials(group.url, run.getParent(), group.credentialsId))
                     .build();
-            if (Constants.NEVER_COMMIT.equalsIgnoreCase(strategy)) {
-                repo.dispose();
-                return;
-            }
-            try {
-                List<ImportItem> artifact = Utils.parseAndReplaceEnvVars(envVars, cloneItems(this.artifacts));
-                if (repo.createWorkingCopy(artifact, envVars).isEmpty()) {
-                    repo.dispose();
-                } else {
-                    repo.setCommitMessage(Utils.replaceVars(envVars, commitMessage));
-                    repo.commit();
+            try (PublishQueue.Turn turn = PublishQueue.get().enter(queueKey(group.url), repo::getRepositoryRoot)) {
+                if (turn.getAhead() > 0) {
+                    buildLogger.println(prefix + "Waited " + turn.getWaitMillis() + " ms behind " + turn.getAhead() + " other publishes to the repository");
                 }
-            } catch (SVNPublisherException ex) {
-                buildLogger.println(ex.getMessage());
-                throw new AbortException(ex.getMessage());
-            } catch (Throwable throwable) {
-                throwable.printStackTrace();
-            } finally {
+                repo.setCommitMessage(Utils.replaceVars(envVars, commitMessage));
+                PublishResult result = repo.publish(group.items, envVars, taskListener);
+                result.getTimings().add(PhaseTimings.Phase.QUEUE, turn.getWaitMillis());
+                PublishMetrics.published(group.url, result);
+                if (result.isCommitted()) {
+                    buildLogger.println(prefix + "Committed revision " + result.getRevision() + " with " + result.getChangedFiles() + " changed files"
+                            + (result.getAttempts() > 1 ? " after " + result.getAttempts() + " attempts" : ""));
+                    buildLogger.println(prefix + "Sent " + Util.getFileSize(result.getBytesSent())
+                            + (result.getCompressedBytes() > 0 ? ", " + Util.getFileSize(result.getCompressedBytes()) + " of it already compressed" : "")
+                            + (result.getCpuMillis() >= 0 ? ", using " + Util.getTimeSpanString(result.getCpuMillis()) + " of agent CPU" : ""));
+                    try {
+                        PublishReport.record(run, group.url, group.items, result);
+                    } catch (IOException e) {
+                        // the commit is done, only its report is missing
+                        buildLogger.println(prefix + "Can not save the publish report: " + e.getMessage());
+                    }
+                } else if (result.getChangedFiles() == 0) {
+                    buildLogger.println(prefix + "Nothing to publish");
+                }
+            }
+        } catch (IllegalArgumentException ex) {
+            // a repository configured without a url or with credentials that are not found
+            PublishMetrics.failed(group.url);
+            buildLogger.println(prefix + "Can not publish: " + ex.getMessage());
+            return prefix + "Can not publish: " + ex.getMessage();
+        } catch (SVNPublisherException ex) {
+            PublishMetrics.failed(group.url);
+            buildLogger.println(prefix + ex.getMessage());
+            return prefix + ex.getMessage();
+        } catch (InterruptedException ex) {
+            // aborted while waiting for the queue or the agent
+            throw ex;
+        } catch (Throwable throwable) {
+            PublishMetrics.failed(group.url);
+            LOGGER.log(Level.WARNING, "publish to " + group.url + " failed", throwable);
+            buildLogger.println(prefix + "Publish failed: " + throwable);
+            return prefix + "Publish failed: " + throwable;
+        } finally {
+            if (repo != null) {
                 repo.dispose();
             }
-        } catch (IOException | InterruptedException ex) {
-            buildLogger.println(ex.getMessage());
-            throw new AbortException(ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * The url a publish is queued on until the root of its repository is
+     * known, whatever the form it was written in.
+     */
+    private static String queueKey(String url) {
+        try {
+            return SVNURL.parseURIDecoded(url).toString();
+        } catch (SVNException e) {
+            return url;
+        }
+    }
+
+    /**
+     * The items going to one repository, with the credentials to use there.
+     */
+    private static final class RepositoryGroup {
+        private final String url;
+        private final String credentialsId;
+        private final List<ImportItem> items = new ArrayList<>();
+
+        RepositoryGroup(String url, String credentialsId) {
+            this.url = url;
+            this.credentialsId = credentialsId;
+        }
+
+        String key() {
+            return url + '\n' + credentialsId;
         }
     }
 
@@ -203,6 +401,14 @@ public class SVNPublisher extends Recorder implements SimpleBuildStep {
             items.add("Trigger", Constants.TRIGGER_COMMIT);
             return items;
         }
+
+        public ListBoxModel doFillModeItems() {
+            ListBoxModel items = new ListBoxModel();
+            items.add("Working copy", Constants.WORKING_COPY_MODE);
+            items.add("Direct commit", Constants.DIRECT_MODE);
+            items.add("Mirror", Constants.MIRROR_MODE);
+            return items;
+        }
         public ListBoxModel doFillCredentialsIdItems(@AncestorInPath Item context, @QueryParameter String svnUrl) {
             List<DomainRequirement> domainRequirements;
             domainRequirements = URIRequirementBuilder.fromUri(svnUrl.trim()).build();
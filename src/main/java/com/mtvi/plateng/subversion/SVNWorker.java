@@ -1,19 +1,12 @@
 package com.mtvi.plateng.subversion;
 
 import com.cloudbees.plugins.credentials.Credentials;
-import com.google.common.collect.Lists;
 import hudson.EnvVars;
-import hudson.FilePath;
 import hudson.Launcher;
-import hudson.remoting.VirtualChannel;
+import hudson.model.TaskListener;
 import hudson.scm.CredentialsSVNAuthenticationProviderImpl;
 import jenkins.security.MasterToSlaveCallable;
-import jenkins.security.Roles;
-import org.apache.commons.io.FileUtils;
-import org.jenkinsci.remoting.RoleChecker;
-import org.tmatesoft.svn.core.SVNDepth;
 import org.tmatesoft.svn.core.SVNException;
-import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
 import org.tmatesoft.svn.core.internal.io.dav.DAVRepositoryFactory;
@@ -21,9 +14,7 @@ import org.tmatesoft.svn.core.io.SVNRepository;
 import org.tmatesoft.svn.core.wc.*;
 
 import java.io.File;
-import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -45,22 +36,21 @@ public class SVNWorker implements Serializable {
     private static final Logger LOGGER = Logger.getLogger(SVNWorker.class.getName());
     private SVNClientManager manager;
     private SVNRepository repository;
-    private File workingCopy;
+    private SVNURL svnUrl;
     private String commitMessage = "";
     private Launcher launcher;
     private File baseLocalDir;
-    private String strategy;
+    private PublishOptions options;
     private Credentials credentials;
 
-    private SVNWorker(String url, String workspace, Launcher launcher, Credentials credentials, String strategy) {
+    private SVNWorker(String url, String workspace, Launcher launcher, Credentials credentials, PublishOptions options) {
         try {
-            File workSpaceFile = new File(workspace);
-            this.workingCopy = new File(workSpaceFile, Constants.PLUGIN_NAME);
-            this.baseLocalDir = workSpaceFile;
-            this.strategy = strategy;
+            this.baseLocalDir = new File(workspace);
+            this.options = options;
             this.credentials = credentials;
             this.launcher = launcher;
-            initRepo(SVNURL.parseURIDecoded(url));
+            // the connections are made on the agent, from its own pool
+            this.svnUrl = SVNURL.parseURIDecoded(url);
         } catch (SVNException ex) {
             LOGGER.log(Level.SEVERE, ex.getMessage());
         }
@@ -75,35 +65,28 @@ public class SVNWorker implements Serializable {
 
 
     private void initRepo(SVNURL repoUrl) throws SVNException {
+        this.svnUrl = repoUrl;
         SVNClientManager manager = createManager();
         repository = manager.createRepository(repoUrl, true);
     }
 
     public SVNClientManager createManager() {
+        manager = createManager(credentials);
+        return manager;
+    }
+
+    static SVNClientManager createManager(Credentials credentials) {
         ISVNAuthenticationManager sam;
         ISVNOptions options;
 
         File configDir = SVNWCUtil.getDefaultConfigurationDirectory();
         sam = SVNWCUtil.createDefaultAuthenticationManager(configDir);
         sam.setAuthenticationProvider(new CredentialsSVNAuthenticationProviderImpl(credentials));
+        // compression on the wire is left to the configuration, it is not set per publish or per file
         options = SVNWCUtil.createDefaultOptions(configDir, true);
 
         DAVRepositoryFactory.setup();
-        manager = SVNClientManager.newInstance(options, sam);
-        return manager;
-    }
-
-    private static void cleanWorkspace(File workspace) {
-        try {
-            if (!workspace.exists()) {
-                LOGGER.info("workspace is not existed: " + workspace.getName());
-                return;
-            }
-            FileUtils.deleteDirectory(workspace);
-        } catch (IOException e) {
-            LOGGER.info(e.getMessage());
-            e.printStackTrace();
-        }
+        return SVNClientManager.newInstance(options, sam);
     }
 
 
@@ -131,51 +114,60 @@ public class SVNWorker implements Serializable {
         return repoPath;
     }
 
-
-    public List<File> createWorkingCopy(List<ImportItem> item, EnvVars envVars) throws SVNPublisherException {
-        List<File> files = Lists.newArrayList();
-        try {
-            cleanWorkspace(workingCopy);
-            SVNURL svnPath = repository.getLocation();
-            launcher.getChannel().call(new CheckoutTask(svnPath, workingCopy));
-            for (ImportItem i : item) {
-                SVNURL svnDestination = svnPath.appendPath(i.getPath(), true);
-                SVNNodeKind pathType = repository.checkPath(getRelativePath(svnDestination, repository), repository.getLatestRevision());
-                File dir = new File(workingCopy, i.getPath());
-                if (pathType == SVNNodeKind.NONE) {
-                    launcher.getChannel().call(new AddTask(dir));
-                } else if (pathType == SVNNodeKind.DIR) {
-                    launcher.getChannel().call(new CheckoutTask(svnPath, dir));
-                }
-                File localPath = new File(baseLocalDir, i.getLocalPath());
-                files.addAll(launcher.getChannel().call(new CopyFilesTask(i, envVars, strategy, new FilePath(dir), localPath)));
-            }
-        } catch (SVNException e) {
-            throw new SVNPublisherException("Error in repository " + e.getMessage());
-        } catch (Exception ex1) {
-            throw new SVNPublisherException(ex1);
-        } catch (Throwable throwable) {
-            throwable.printStackTrace();
-        }
-        return files;
+    /**
+     * Publish the matched files of the items. The whole publish runs on the
+     * agent in a single remoting call.
+     *
+     * @param listener where the decisions worth a line in the build log go.
+     */
+    public PublishResult publish(List<ImportItem> items, EnvVars envVars, TaskListener listener) throws Throwable {
+        return launcher.getChannel().call(new PublishTask(svnUrl, credentials, items, envVars, options, baseLocalDir, commitMessage, listener));
     }
 
-    public void commit() throws Throwable {
-        launcher.getChannel().call(new CommitTask(commitMessage, workingCopy));
+    /**
+     * Ask the agent for the root of the repository, over a pooled connection
+     * that the publish then goes on with.
+     */
+    public String getRepositoryRoot() throws Exception {
+        return launcher.getChannel().call(new RootTask(svnUrl, credentials));
     }
 
     public void dispose() {
-        cleanWorkspace(workingCopy);
-        manager.dispose();
+        if (manager != null) {
+            manager.dispose();
+        }
     }
 
 
+    private static final class RootTask extends MasterToSlaveCallable<String, SVNException> {
+        private static final long serialVersionUID = 1L;
+        private final SVNURL svnUrl;
+        private final Credentials credentials;
+
+        RootTask(SVNURL svnUrl, Credentials credentials) {
+            this.svnUrl = svnUrl;
+            this.credentials = credentials;
+        }
+
+        @Override
+        public String call() throws SVNException {
+            try (ConnectionPool.Lease lease = ConnectionPool.get().borrow(svnUrl, credentials)) {
+                try {
+                    return lease.getRepository().getRepositoryRoot(true).toString();
+                } catch (SVNException e) {
+                    lease.invalidate();
+                    throw e;
+                }
+            }
+        }
+    }
+
     public static class Builder {
         private String url;
         private String workingCopy;
         private Launcher launcher;
         private Credentials credentials;
-        private String strategy = "always";
+        private PublishOptions options = new PublishOptions();
 
         public Builder svnUrl(String svnUrl) {
             this.url = svnUrl;
@@ -188,160 +180,72 @@ public class SVNWorker implements Serializable {
             return this;
         }
 
+        public Builder workingCopyName(String workingCopyName) {
+            options.setWorkingCopyName(workingCopyName);
+            return this;
+        }
+
         public Builder credentials(Credentials credentials) {
             this.credentials = credentials;
             return this;
         }
 
         public Builder strategy(String strategy) {
-            this.strategy = strategy;
+            options.setStrategy(strategy);
             return this;
         }
 
-        public Builder launcher(Launcher launcher) {
-            this.launcher = launcher;
+        public Builder mode(String mode) {
+            options.setMode(mode);
             return this;
         }
 
-        public SVNWorker build() {
-            if ("".equalsIgnoreCase(url)) {
-                throw new IllegalArgumentException("svn url is empty");
-            }
-            if (credentials == null) {
-                throw new IllegalArgumentException("credentials not found");
-            }
-            if (launcher == null || "".equalsIgnoreCase(workingCopy)) {
-                return new SVNWorker(url, credentials);
-            }
-            return new SVNWorker(url, workingCopy, launcher, credentials, strategy);
+        public Builder keepWorkingCopy(boolean keepWorkingCopy) {
+            options.setKeepWorkingCopy(keepWorkingCopy);
+            return this;
         }
-    }
-
-    private class CheckoutTask extends MasterToSlaveCallable<SVNPropertyData, Throwable> {
-        private static final long serialVersionUID = 2L;
-        private SVNURL svnPath;
-        private File file;
 
-        CheckoutTask(SVNURL svnPath, File file) {
-            this.svnPath = svnPath;
-            this.file = file;
+        public Builder workers(int workers) {
+            options.setWorkers(workers);
+            return this;
         }
 
-        @Override
-        public SVNPropertyData call() throws Throwable {
-            try {
-                SVNClientManager manager = createManager();
-                if (!file.exists()) {
-                    throw new IOException("io exception");
-                }
-                manager.getUpdateClient().doCheckout(svnPath, new File(file, Constants.PLUGIN_NAME), SVNRevision.HEAD, SVNRevision.HEAD, SVNDepth.INFINITY, true);
-                return manager.getWCClient().doGetProperty(svnPath, null, SVNRevision.HEAD, SVNRevision.HEAD);
-            } catch (SVNException e) {
-                LOGGER.info(e.getMessage());
-                e.printStackTrace();
-            }
-            return null;
+        public Builder deltaThreshold(long deltaThreshold) {
+            options.setDeltaThreshold(deltaThreshold);
+            return this;
         }
-    }
-
-    private  class AddTask extends MasterToSlaveCallable<Boolean, Throwable> {
-        private static final long serialVersionUID = 3L;
 
-        private File file;
-
-        AddTask(File file) {
-            this.file = file;
+        public Builder streamingThreshold(long streamingThreshold) {
+            options.setStreamingThreshold(streamingThreshold);
+            return this;
         }
 
-
-        @Override
-        public Boolean call() throws Throwable {
-            if (!file.exists() && !file.mkdirs()) {
-                throw new IOException("mkdir file failed: " + file.getName());
-            }
-            try {
-                SVNClientManager manager = createManager();
-                manager.getWCClient().doAdd(file, false, true, false, SVNDepth.INFINITY, false, false, true);
-            } catch (SVNException e) {
-                LOGGER.info(e.getMessage());
-                e.printStackTrace();
-                return false;
-            }
-            return true;
+        public Builder retries(int retries) {
+            options.setRetries(retries);
+            return this;
         }
-    }
 
-    private  class CopyFilesTask extends MasterToSlaveCallable<List<File>, Throwable> {
-        private static final long serialVersionUID = 4L;
-        private ImportItem item;
-        private EnvVars envVars;
-        private String strategy;
-        private FilePath workingCopy;
-        private File file;
-
-        CopyFilesTask(ImportItem item, EnvVars vars, String strategy, FilePath workingCopy, File file) {
-            this.item = item;
-            this.envVars = vars;
-            this.strategy = strategy;
-            this.workingCopy = workingCopy;
-            this.file = file;
+        public Builder cacheDir(String cacheDir) {
+            options.setCacheDir(cacheDir);
+            return this;
         }
 
+        public Builder launcher(Launcher launcher) {
+            this.launcher = launcher;
+            return this;
+        }
 
-        @Override
-        public List<File> call() throws Throwable {
-            List<File> files = new ArrayList<>();
-            String[] params = item.getParams().split(",");
-            //  empty params equals always commit
-            if (Constants.ALWAYS_COMMIT.equalsIgnoreCase(this.strategy)) {
-                params = new String[]{""};
+        public SVNWorker build() {
+            if ("".equalsIgnoreCase(url)) {
+                throw new IllegalArgumentException("svn url is empty");
             }
-            try {
-                SVNClientManager manager = createManager();
-                List<File> filesToCopy = Utils.findFilesWithPattern(new FilePath(file), item.getPattern(), params, envVars);
-                for (File f : filesToCopy) {
-                    File wc = new File(workingCopy.getRemote(), f.getName());
-                    boolean toAdd = !wc.exists();
-                    FileUtils.copyFile(new File(file, f.getName()), wc);
-                    if (toAdd) {
-                        manager.getWCClient().doAdd(wc, false, false, false, SVNDepth.INFINITY, false, false, false);
-                    }
-                    files.add(wc);
-                }
-            } catch (SVNPublisherException | SVNException e) {
-                LOGGER.info(e.getMessage());
-                e.printStackTrace();
+            if (credentials == null) {
+                throw new IllegalArgumentException("credentials not found for " + url);
             }
-            return files;
-        }
-    }
-
-
-    private class CommitTask extends MasterToSlaveCallable<Boolean, Throwable> {
-        private static final long serialVersionUID = 5L;
-        private transient String commitMessage;
-        private File file;
-
-
-        CommitTask(String commitMsg, File file) {
-            this.commitMessage = commitMsg;
-            this.file = file;
-        }
-
-
-        @Override
-        public Boolean call() throws Throwable {
-            try {
-                SVNClientManager svnClientManager = createManager();
-                SVNCommitClient commit = manager.getCommitClient();
-                SVNCommitPacket a = commit.doCollectCommitItems(new File[]{file}, false, true, SVNDepth.INFINITY, null);
-                commit.doCommit(a, false, commitMessage);
-                return true;
-            } catch (SVNException e) {
-                LOGGER.info(e.getMessage());
-                e.printStackTrace();
+            if (launcher == null || "".equalsIgnoreCase(workingCopy)) {
+                return new SVNWorker(url, credentials);
             }
-            return false;
+            return new SVNWorker(url, workingCopy, launcher, credentials, options);
         }
     }
 
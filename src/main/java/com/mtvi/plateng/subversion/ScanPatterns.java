@@ -0,0 +1,154 @@
+package com.mtvi.plateng.subversion;
+
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.types.selectors.SelectorUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * Comma separated Ant include and exclude patterns, normalized and matched the
+ * way the {@code DirectoryScanner} of a {@code FileSet} does. On top of the
+ * matching it tells a scanner where it has to look: the fixed directory
+ * prefix of each include, before its first wildcard, and the directories
+ * whose whole content is excluded. Paths are relative to the scanned root and
+ * separated with '/'.
+ *
+ * @author sekfung
+ */
+final class ScanPatterns {
+    private static final String DEEP_TREE = File.separator + SelectorUtils.DEEP_TREE_MATCH;
+
+    private final String[] includes;
+    private final String[] excludes;
+    /**
+     * The excludes ending with "/**", without that ending.
+     */
+    private final String[] treeExcludes;
+    private final boolean caseSensitive;
+
+    ScanPatterns(String includes, String excludes, boolean defaultExcludes, boolean caseSensitive) {
+        List<String> in = tokenize(includes);
+        if (in.isEmpty()) {
+            in.add(SelectorUtils.DEEP_TREE_MATCH);
+        }
+        List<String> ex = tokenize(excludes);
+        if (defaultExcludes) {
+            for (String exclude : DirectoryScanner.getDefaultExcludes()) {
+                ex.add(normalize(exclude));
+            }
+        }
+        List<String> trees = new ArrayList<>();
+        for (String exclude : ex) {
+            if (exclude.endsWith(DEEP_TREE)) {
+                trees.add(exclude.substring(0, exclude.length() - DEEP_TREE.length()));
+            }
+        }
+        this.includes = in.toArray(new String[0]);
+        this.excludes = ex.toArray(new String[0]);
+        this.treeExcludes = trees.toArray(new String[0]);
+        this.caseSensitive = caseSensitive;
+    }
+
+    boolean isIncluded(String path) {
+        String name = toNative(path);
+        return matchesAny(includes, name) && !matchesAny(excludes, name);
+    }
+
+    /**
+     * Tell whether the directory has to be walked: some include may match
+     * below it and its content is not excluded as a whole.
+     */
+    boolean isWalked(String dir) {
+        String name = toNative(dir);
+        if (matchesAny(treeExcludes, name)) {
+            return false;
+        }
+        for (String include : includes) {
+            if (SelectorUtils.matchPatternStart(include, name, caseSensitive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The directories a scan starts from: the fixed prefix of every include,
+     * less those lying under another one. The root itself, "", when an
+     * include starts with a wildcard or the matching ignores case, since the
+     * prefix can then not be resolved as it is written.
+     */
+    List<String> startDirs() {
+        List<String> starts = new ArrayList<>();
+        for (String include : includes) {
+            String prefix = caseSensitive ? prefixOf(include) : "";
+            if (prefix.isEmpty()) {
+                starts.clear();
+                starts.add("");
+                return starts;
+            }
+            starts.add(prefix);
+        }
+        starts.sort(null);
+        List<String> outermost = new ArrayList<>();
+        for (String start : starts) {
+            String last = outermost.isEmpty() ? null : outermost.get(outermost.size() - 1);
+            if (last == null || !(start.equals(last) || start.startsWith(last + '/'))) {
+                outermost.add(start);
+            }
+        }
+        return outermost;
+    }
+
+    private static String prefixOf(String include) {
+        StringBuilder prefix = new StringBuilder();
+        StringTokenizer tokens = new StringTokenizer(include, File.separator);
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            // the last token names files, never a directory to start from
+            if (!tokens.hasMoreTokens() || SelectorUtils.hasWildcards(token) || token.equals("..")) {
+                break;
+            }
+            if (prefix.length() > 0) {
+                prefix.append('/');
+            }
+            prefix.append(token);
+        }
+        return prefix.toString();
+    }
+
+    private boolean matchesAny(String[] patterns, String name) {
+        for (String pattern : patterns) {
+            if (SelectorUtils.matchPath(pattern, name, caseSensitive)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toNative(String path) {
+        return path.replace('/', File.separatorChar);
+    }
+
+    private static List<String> tokenize(String patterns) {
+        List<String> tokens = new ArrayList<>();
+        if (patterns == null) {
+            return tokens;
+        }
+        StringTokenizer tokenizer = new StringTokenizer(patterns, ",");
+        while (tokenizer.hasMoreTokens()) {
+            String token = tokenizer.nextToken().trim();
+            if (!token.isEmpty()) {
+                tokens.add(normalize(token));
+            }
+        }
+        return tokens;
+    }
+
+    private static String normalize(String pattern) {
+        String normalized = pattern.replace('/', File.separatorChar).replace('\\', File.separatorChar);
+        return normalized.endsWith(File.separator) ? normalized + SelectorUtils.DEEP_TREE_MATCH : normalized;
+    }
+}
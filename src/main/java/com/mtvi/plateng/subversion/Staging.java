@@ -0,0 +1,117 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Puts workspace artifacts into the publish area with as little I/O as the
+ * file systems allow. When source and target live on the same file store the
+ * target becomes a hard link to the source and no data is copied at all;
+ * otherwise the bytes are copied through file channels. When a checksum is
+ * asked for, it is computed in the same pass that reads the file, so each
+ * artifact is read at most once.
+ * <p>
+ * Hard links can be turned off with the
+ * {@code com.mtvi.plateng.subversion.Staging.disableLinks} system property.
+ *
+ * @author sekfung
+ */
+final class Staging {
+    private static final Logger LOGGER = Logger.getLogger(Staging.class.getName());
+    static final boolean DISABLE_LINKS = Boolean.getBoolean(Staging.class.getName() + ".disableLinks");
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private Staging() {
+    }
+
+    /**
+     * Place the source at the target, replacing whatever is there.
+     *
+     * @param algorithm the checksum algorithm, or null when no checksum is needed.
+     * @return the hex checksum of the content, or null when none was asked for.
+     */
+    static String place(File source, File target, String algorithm) throws IOException {
+        Path from = source.toPath();
+        Path to = target.toPath();
+        Files.createDirectories(to.getParent());
+        if (link(from, to)) {
+            return algorithm == null ? null : Checksums.digest(source, algorithm);
+        }
+        if (algorithm == null) {
+            copy(from, to);
+            return null;
+        }
+        return copyAndHash(from, to, algorithm);
+    }
+
+    /**
+     * Copy the source to the target, never linking them, for copies that must
+     * keep their content when the source is rewritten in place. A target
+     * linked to the source is unlinked rather than written through.
+     *
+     * @return the hex checksum of the copied content.
+     */
+    static String copy(File source, File target, String algorithm) throws IOException {
+        Path to = target.toPath();
+        Files.createDirectories(to.getParent());
+        Files.deleteIfExists(to);
+        return copyAndHash(source.toPath(), to, algorithm);
+    }
+
+    private static boolean link(Path from, Path to) {
+        if (DISABLE_LINKS) {
+            return false;
+        }
+        try {
+            if (!Files.getFileStore(from).equals(Files.getFileStore(to.getParent()))) {
+                return false;
+            }
+            Files.deleteIfExists(to);
+            Files.createLink(to, from);
+            return true;
+        } catch (IOException | UnsupportedOperationException | SecurityException e) {
+            LOGGER.log(Level.FINE, "can not link " + to + ", copying instead", e);
+            return false;
+        }
+    }
+
+    private static void copy(Path from, Path to) throws IOException {
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        } catch (UnsupportedOperationException e) {
+            Files.copy(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String copyAndHash(Path from, Path to, String algorithm) throws IOException {
+        MessageDigest digest = Checksums.newDigest(algorithm);
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(to, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer.array(), 0, buffer.limit());
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return Checksums.toHex(digest.digest());
+    }
+}
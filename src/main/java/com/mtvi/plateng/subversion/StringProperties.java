@@ -0,0 +1,85 @@
+package com.mtvi.plateng.subversion;
+
+import org.springframework.util.StringUtils;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The String properties of a type, that is each declared String field with a
+ * matching {@code getX()} and {@code setX(String)} pair. They are looked up
+ * once per type and kept as method handles, so rewriting the properties of an
+ * object needs no reflection.
+ *
+ * @author sekfung
+ */
+final class StringProperties {
+    private static final Logger LOGGER = Logger.getLogger(StringProperties.class.getName());
+    private static final MethodType GETTER = MethodType.methodType(String.class, Object.class);
+    private static final MethodType SETTER = MethodType.methodType(void.class, Object.class, String.class);
+
+    private static final ClassValue<StringProperties> PROPERTIES = new ClassValue<StringProperties>() {
+        @Override
+        protected StringProperties computeValue(Class<?> type) {
+            return new StringProperties(type);
+        }
+    };
+
+    private final List<MethodHandle[]> accessors;
+
+    private StringProperties(Class<?> type) {
+        List<MethodHandle[]> found = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        for (Field f : type.getDeclaredFields()) {
+            if (f.getType() != String.class) {
+                continue;
+            }
+            String capitalName = StringUtils.capitalize(f.getName());
+            try {
+                Method get = type.getDeclaredMethod("get" + capitalName);
+                Method set = type.getDeclaredMethod("set" + capitalName, String.class);
+                if (get.getReturnType() != String.class) {
+                    continue;
+                }
+                found.add(new MethodHandle[]{
+                        lookup.unreflect(get).asType(GETTER),
+                        lookup.unreflect(set).asType(SETTER)
+                });
+            } catch (NoSuchMethodException | IllegalAccessException | SecurityException ex) {
+                LOGGER.log(Level.FINEST, "{0} {1}", new Object[]{f.getName(), ex.getMessage()});
+            }
+        }
+        this.accessors = Collections.unmodifiableList(found);
+    }
+
+    static StringProperties of(Class<?> type) {
+        return PROPERTIES.get(type);
+    }
+
+    /**
+     * Replace each non null String property of the object by its rewritten value.
+     */
+    void rewrite(Object target, UnaryOperator<String> rewrite) {
+        for (MethodHandle[] accessor : accessors) {
+            try {
+                String value = (String) accessor[0].invokeExact(target);
+                if (value != null) {
+                    accessor[1].invokeExact(target, rewrite.apply(value));
+                }
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+    }
+}
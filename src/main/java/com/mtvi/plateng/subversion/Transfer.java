@@ -0,0 +1,81 @@
+package com.mtvi.plateng.subversion;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lists the files a publish sends, deletes or leaves as they are, and counts
+ * the bytes sent, and how many of them belong to files that are already
+ * compressed and gain nothing from compression on the wire.
+ *
+ * @author sekfung
+ */
+final class Transfer {
+    private long bytes;
+    private long compressedBytes;
+    private int added;
+    private int modified;
+    private int deleted;
+    private final List<PublishedFile> files = new ArrayList<>();
+
+    /**
+     * @param item     the index of the item that matched the file.
+     * @param path     the path of the file in the repository, relative to its url.
+     * @param sent     the bytes sent for the file, its length or the size of its delta.
+     * @param isNew    whether the file is added to the repository rather than modified.
+     * @param checksum the MD5 checksum of the content.
+     * @param kind     how the file stands to compression.
+     */
+    void add(int item, String path, File file, long sent, boolean isNew, String checksum, Compressibility.Kind kind) {
+        files.add(new PublishedFile(isNew ? PublishedFile.Action.ADDED : PublishedFile.Action.MODIFIED, item, path, file.length(), checksum));
+        bytes += sent;
+        if (kind.isCompressed()) {
+            compressedBytes += sent;
+        }
+        if (isNew) {
+            added++;
+        } else {
+            modified++;
+        }
+    }
+
+    /**
+     * @param item the index of the item whose target held the path.
+     */
+    void delete(int item, String path) {
+        files.add(new PublishedFile(PublishedFile.Action.DELETED, item, path, 0, null));
+        deleted++;
+    }
+
+    /**
+     * @param checksum the MD5 checksum of the content, or null when it is not known.
+     */
+    void unchanged(int item, String path, File file, String checksum) {
+        files.add(new PublishedFile(PublishedFile.Action.UNCHANGED, item, path, file.length(), checksum));
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    int getAdded() {
+        return added;
+    }
+
+    int getModified() {
+        return modified;
+    }
+
+    int getDeleted() {
+        return deleted;
+    }
+
+    List<PublishedFile> getFiles() {
+        return files;
+    }
+}
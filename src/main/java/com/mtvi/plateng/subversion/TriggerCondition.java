@@ -0,0 +1,397 @@
+package com.mtvi.plateng.subversion;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The parameter trigger of an {@link ImportItem}, compiled into a predicate
+ * over the build variables. The historic form, comma separated
+ * {@code KEY=value} pairs that must all hold, still means the same thing.
+ * On top of it:
+ * <ul>
+ * <li>{@code KEY=value} or {@code KEY==value}: the variable equals the value</li>
+ * <li>{@code KEY!=value}: the variable is unset or differs from the value</li>
+ * <li>{@code KEY=~regex} and {@code KEY!~regex}: the whole variable matches, or does not match, the regex</li>
+ * <li>{@code KEY in (a, b, c)} and {@code KEY not in (a, b, c)}: the variable is, or is not, one of the values</li>
+ * <li>{@code ,}, {@code &&} or {@code and} join conditions that must all hold</li>
+ * <li>{@code ||} or {@code or} join conditions of which one must hold, binding looser than and</li>
+ * <li>{@code !} or {@code not} negate a condition, and parentheses group them</li>
+ * </ul>
+ * Values may be quoted with single or double quotes to keep spaces, commas or
+ * parentheses. An empty trigger always holds.
+ * <p>
+ * A trigger written in the historic form, comma separated {@code KEY=value}
+ * pairs with a single {@code =} right after a plain key, keeps its historic
+ * reading, the value taken literally, whenever the grammar above fails on it
+ * or reads it differently: as with {@code KEY=~value}, or quotes or
+ * parentheses in a value. A warning says so. A space before the operator, as
+ * in {@code KEY =~ value}, asks for the new reading.
+ * <p>
+ * Pairs whose key is not plain, such as {@code " B"} in {@code A=1, B=2},
+ * never held in the historic reading, as no build variable has such a name.
+ * They are read with the grammar above, which ignores the spaces, so such a
+ * trigger can now hold.
+ *
+ * @author sekfung
+ */
+abstract class TriggerCondition {
+
+    static final TriggerCondition ALWAYS = new TriggerCondition() {
+        @Override
+        boolean test(Map<String, String> vars) {
+            return true;
+        }
+    };
+
+    abstract boolean test(Map<String, String> vars);
+
+    /**
+     * @return the {@code KEY=value} pairs, in order, when the condition is
+     * nothing but all of them holding, null otherwise.
+     */
+    List<Map.Entry<String, String>> equalities() {
+        return null;
+    }
+
+    /**
+     * @param warnings told when the trigger is read the historic way.
+     * @throws IllegalArgumentException when the trigger can not be parsed.
+     */
+    static TriggerCondition compile(String trigger, Consumer<String> warnings) {
+        if (trigger == null || trigger.trim().isEmpty()) {
+            return ALWAYS;
+        }
+        List<Map.Entry<String, String>> pairs = legacyPairs(trigger);
+        TriggerCondition condition;
+        try {
+            condition = new Parser(trigger).parse();
+        } catch (IllegalArgumentException e) {
+            if (pairs == null) {
+                throw e;
+            }
+            condition = null;
+        }
+        if (pairs == null || (condition != null && pairs.equals(condition.equalities()))) {
+            return condition;
+        }
+        warnings.accept("Trigger \"" + trigger + "\" is read as before, as literal KEY=value pairs;"
+                + " put a space before the operator to read it as a condition");
+        return allEqual(pairs);
+    }
+
+    /**
+     * The historic reading: the comma separated parts up to the first empty
+     * one, split on their single {@code =}, untrimmed.
+     *
+     * @return the pairs, or null when a part is not a pair of a plain key,
+     * which the historic reading never let hold.
+     */
+    private static List<Map.Entry<String, String>> legacyPairs(String trigger) {
+        List<Map.Entry<String, String>> pairs = new ArrayList<>();
+        for (String part : trigger.split(",")) {
+            if (part.isEmpty()) {
+                break;
+            }
+            String[] pair = part.split("=");
+            if (!part.contains("=") || pair.length != 2 || !isKey(pair[0])) {
+                return null;
+            }
+            pairs.add(new AbstractMap.SimpleImmutableEntry<>(pair[0], pair[1]));
+        }
+        return pairs;
+    }
+
+    private static boolean isKey(String key) {
+        if (key.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < key.length(); i++) {
+            if (!Parser.isKeyChar(key.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static TriggerCondition allEqual(List<Map.Entry<String, String>> pairs) {
+        return new TriggerCondition() {
+            @Override
+            boolean test(Map<String, String> vars) {
+                for (Map.Entry<String, String> pair : pairs) {
+                    if (!pair.getValue().equals(vars.get(pair.getKey()))) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    private static final class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        TriggerCondition parse() {
+            TriggerCondition condition = parseOr();
+            skipSpaces();
+            if (pos < text.length()) {
+                throw error("unexpected '" + text.charAt(pos) + "'");
+            }
+            return condition;
+        }
+
+        private TriggerCondition parseOr() {
+            TriggerCondition left = parseAnd();
+            while (accept("||") || acceptWord("or")) {
+                TriggerCondition a = left;
+                TriggerCondition b = parseAnd();
+                left = new TriggerCondition() {
+                    @Override
+                    boolean test(Map<String, String> vars) {
+                        return a.test(vars) || b.test(vars);
+                    }
+                };
+            }
+            return left;
+        }
+
+        private TriggerCondition parseAnd() {
+            TriggerCondition left = parseUnary();
+            while (accept(",") || accept("&&") || acceptWord("and")) {
+                skipSpaces();
+                if (pos == text.length()) {
+                    // a trailing comma was always tolerated
+                    break;
+                }
+                TriggerCondition a = left;
+                TriggerCondition b = parseUnary();
+                left = new TriggerCondition() {
+                    @Override
+                    boolean test(Map<String, String> vars) {
+                        return a.test(vars) && b.test(vars);
+                    }
+
+                    @Override
+                    List<Map.Entry<String, String>> equalities() {
+                        List<Map.Entry<String, String>> first = a.equalities();
+                        List<Map.Entry<String, String>> second = b.equalities();
+                        if (first == null || second == null) {
+                            return null;
+                        }
+                        List<Map.Entry<String, String>> pairs = new ArrayList<>(first);
+                        pairs.addAll(second);
+                        return pairs;
+                    }
+                };
+            }
+            return left;
+        }
+
+        private TriggerCondition parseUnary() {
+            if (accept("!") || acceptWord("not")) {
+                TriggerCondition negated = parseUnary();
+                return new TriggerCondition() {
+                    @Override
+                    boolean test(Map<String, String> vars) {
+                        return !negated.test(vars);
+                    }
+                };
+            }
+            if (accept("(")) {
+                TriggerCondition grouped = parseOr();
+                expect(")");
+                return grouped;
+            }
+            return parseComparison();
+        }
+
+        private TriggerCondition parseComparison() {
+            String key = readKey();
+            if (accept("==") || accept("=")) {
+                if (accept("~")) {
+                    return matches(key, readValue(), false);
+                }
+                return equalsTo(key, readValue(), false);
+            }
+            if (accept("!=")) {
+                return equalsTo(key, readValue(), true);
+            }
+            if (accept("!~")) {
+                return matches(key, readValue(), true);
+            }
+            if (acceptWord("in")) {
+                return in(key, readList(), false);
+            }
+            if (acceptWord("not")) {
+                if (!acceptWord("in")) {
+                    throw error("expected 'in' after 'not'");
+                }
+                return in(key, readList(), true);
+            }
+            throw error("expected an operator after " + key);
+        }
+
+        private static TriggerCondition equalsTo(String key, String value, boolean negate) {
+            return new TriggerCondition() {
+                @Override
+                boolean test(Map<String, String> vars) {
+                    return value.equals(vars.get(key)) != negate;
+                }
+
+                @Override
+                List<Map.Entry<String, String>> equalities() {
+                    return negate ? null : Collections.singletonList(new AbstractMap.SimpleImmutableEntry<>(key, value));
+                }
+            };
+        }
+
+        private TriggerCondition matches(String key, String regex, boolean negate) {
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(regex);
+            } catch (PatternSyntaxException e) {
+                throw error("invalid regex " + regex);
+            }
+            return new TriggerCondition() {
+                @Override
+                boolean test(Map<String, String> vars) {
+                    String value = vars.get(key);
+                    return (value != null && pattern.matcher(value).matches()) != negate;
+                }
+            };
+        }
+
+        private static TriggerCondition in(String key, List<String> values, boolean negate) {
+            Set<String> set = new HashSet<>(values);
+            return new TriggerCondition() {
+                @Override
+                boolean test(Map<String, String> vars) {
+                    String value = vars.get(key);
+                    return (value != null && set.contains(value)) != negate;
+                }
+            };
+        }
+
+        private String readKey() {
+            skipSpaces();
+            int start = pos;
+            while (pos < text.length() && isKeyChar(text.charAt(pos))) {
+                pos++;
+            }
+            if (start == pos) {
+                throw error(pos < text.length() ? "unexpected '" + text.charAt(pos) + "'" : "missing condition");
+            }
+            return text.substring(start, pos);
+        }
+
+        private List<String> readList() {
+            expect("(");
+            List<String> values = new ArrayList<>();
+            do {
+                values.add(readValue());
+            } while (accept(","));
+            expect(")");
+            return values;
+        }
+
+        /**
+         * A quoted value, or a bare one running up to the next separator. Bare
+         * values may contain spaces, as the historic comma separated form allowed.
+         */
+        private String readValue() {
+            skipSpaces();
+            if (pos < text.length() && (text.charAt(pos) == '"' || text.charAt(pos) == '\'')) {
+                char quote = text.charAt(pos);
+                int end = text.indexOf(quote, pos + 1);
+                if (end < 0) {
+                    throw error("unterminated quote");
+                }
+                String value = text.substring(pos + 1, end);
+                pos = end + 1;
+                return value;
+            }
+            int start = pos;
+            while (pos < text.length() && !atValueEnd()) {
+                pos++;
+            }
+            String value = text.substring(start, pos).trim();
+            if (value.isEmpty()) {
+                throw error("missing value");
+            }
+            return value;
+        }
+
+        private boolean atValueEnd() {
+            char c = text.charAt(pos);
+            if (c == ',' || c == ')' || text.startsWith("&&", pos) || text.startsWith("||", pos)) {
+                return true;
+            }
+            if (!Character.isWhitespace(c)) {
+                return false;
+            }
+            int next = pos;
+            while (next < text.length() && Character.isWhitespace(text.charAt(next))) {
+                next++;
+            }
+            return isWordAt(next, "or") || isWordAt(next, "and");
+        }
+
+        private boolean accept(String token) {
+            skipSpaces();
+            if (text.startsWith(token, pos)) {
+                pos += token.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean acceptWord(String word) {
+            skipSpaces();
+            if (isWordAt(pos, word)) {
+                pos += word.length();
+                return true;
+            }
+            return false;
+        }
+
+        private boolean isWordAt(int at, String word) {
+            if (!text.regionMatches(true, at, word, 0, word.length())) {
+                return false;
+            }
+            int end = at + word.length();
+            return end == text.length() || !isKeyChar(text.charAt(end));
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) {
+                throw error("expected '" + token + "'");
+            }
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private static boolean isKeyChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-';
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Invalid trigger \"" + text + "\" at " + pos + ": " + message);
+        }
+    }
+}
@@ -2,20 +2,15 @@ package com.mtvi.plateng.subversion;
 
 import hudson.EnvVars;
 import hudson.FilePath;
-import org.springframework.util.StringUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 import java.util.stream.Collectors;
 
@@ -25,23 +20,46 @@ import java.util.stream.Collectors;
 public class Utils {
     private static final Logger LOGGER = Logger.getLogger(Utils.class.getName());
 
+    /**
+     * Expand the {@code ${NAME}} tokens found anywhere in the string with the
+     * values of the matching variables. Unknown variables are left untouched.
+     */
     public static String replaceVars(EnvVars vars, String original) {
-        String replaced = original;
-        if (Pattern.matches("\\$\\{.+}", original)) {
-            for (Map.Entry<String, String> k : vars.entrySet()) {
-                Pattern p = Pattern.compile("\\$\\{" + k.getKey() + "}");
-                Matcher m = p.matcher(replaced);
-                if (m.find()) {
-                    replaced = m.replaceAll(vars.get(k.getKey()).trim());
-                }
-            }
+        if (original == null) {
+            return null;
         }
+        return EnvTemplate.of(original).expand(vars);
+    }
 
-        return replaced;
+    /**
+     * Keep the items whose trigger holds for the build variables. Triggers are
+     * ignored with the "always" strategy, and one that can not be parsed never
+     * holds, as a malformed trigger never did. A trigger read the historic way
+     * is warned about in the build log.
+     */
+    static List<ImportItem> triggeredItems(List<ImportItem> items, String strategy, EnvVars vars, PrintStream logger) {
+        if (Constants.ALWAYS_COMMIT.equalsIgnoreCase(strategy)) {
+            return items;
+        }
+        List<ImportItem> triggered = new ArrayList<>();
+        for (ImportItem item : items) {
+            TriggerCondition condition;
+            try {
+                condition = TriggerCondition.compile(item.getParams(), logger::println);
+            } catch (IllegalArgumentException e) {
+                logger.println(e.getMessage());
+                continue;
+            }
+            if (condition.test(vars)) {
+                triggered.add(item);
+            }
+        }
+        return triggered;
     }
 
     /**
-     * Replace the env vars and parameters of jenkins in
+     * Replace the env vars and parameters of jenkins in every String property
+     * of the artifacts. The properties of each type are only looked up once.
      *
      * @param <T>
      * @param vars
@@ -50,59 +68,65 @@ public class Utils {
      */
     public static <T> List<T> parseAndReplaceEnvVars(EnvVars vars, List<T> originalArtifacts) {
         for (T a : originalArtifacts) {
-            Field[] fields;
-            fields = a.getClass().getDeclaredFields();
-            for (Field f : fields) {
-                if (f.getType().isInstance("")) {
-                    String capitalName = StringUtils.capitalize(f.getName());
-                    try {
-                        Method invokeSet = a.getClass().getDeclaredMethod("set" + capitalName, String.class);
-                        Method invokeGet = a.getClass().getDeclaredMethod("get" + capitalName);
+            StringProperties.of(a.getClass()).rewrite(a, value -> replaceVars(vars, value));
+        }
+        return originalArtifacts;
+    }
 
-                        invokeSet.invoke(a, Utils.replaceVars(vars, (String) invokeGet.invoke(a)));
+    /**
+     * Find the files matched by an item under its local path, relative to it.
+     * The trigger of the item is evaluated before, on the controller.
+     *
+     * @param cacheDir where the index of scanned directories is kept, or null.
+     */
+    static List<File> findItemFiles(ImportItem item, File baseLocalDir, String cacheDir) throws SVNPublisherException {
+        FilePath filePath = new FilePath(new File(baseLocalDir, item.getLocalPath()));
+        ListFiles listFiles = new ListFiles(item.getPattern(), item.getExcludes(), item.isDefaultExcludes(), true, item.isFollowSymlinks(), cacheDir);
+        return findFiles(filePath, item.getPattern(), listFiles);
+    }
 
-                    } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException | NullPointerException ex) {
-                        LOGGER.log(Level.FINEST, "{0} {1}", new Object[]{f.getName(), ex.getMessage()});
-                    }
-                }
+    /**
+     * Find the files matched by the pattern, when every one of the
+     * {@code KEY=value} params equals its build variable.
+     *
+     * @deprecated the triggers are now {@link TriggerCondition}s evaluated
+     * before scanning, use {@link #triggeredItems} and then scan the items.
+     */
+    @Deprecated
+    public static List<File> findFilesWithPattern(FilePath filePath, String filePattern, String[] params, EnvVars envVars) throws SVNPublisherException {
+        for (String variable : params) {
+            if ("".equals(variable)) {
+                break;
+            }
+            if (!variable.contains("=") || variable.split("=").length != 2) {
+                return new ArrayList<>();
+            }
+            String key = variable.split("=")[0];
+            String value = variable.split("=")[1];
+            if (!value.equals(envVars.get(key))) {
+                return new ArrayList<>();
             }
         }
-        return originalArtifacts;
+        return findFiles(filePath, filePattern, new ListFiles(filePattern, "", null));
     }
 
-    public static List<File> findFilesWithPattern(FilePath filePath, String filePattern, String[] params, EnvVars envVars) throws SVNPublisherException {
+    private static List<File> findFiles(FilePath filePath, String filePattern, ListFiles listFiles) throws SVNPublisherException {
         try {
             if (!filePath.exists()) {
                 throw new IOException("Path does not exists : " + filePath.getRemote());
             }
-            boolean canUpload = true;
-            for (String variable : params) {
-                if ("".equals(variable)) {
-                    break;
-                }
-                if (!variable.contains("=") || variable.split("=").length != 2) {
-                    canUpload = false;
-                    break;
-                } else {
-                    String key = variable.split("=")[0];
-                    String value = variable.split("=")[1];
-                    if (value == null || !value.equals(envVars.get(key))) {
-                        canUpload = false;
-                        break;
-                    }
-                }
-            }
-            if (canUpload) {
-                ListFiles listFiles = new ListFiles(filePattern, "");
-                Map<String, String> files = filePath.act(listFiles);
-                return files.values().stream().map(File::new).collect(Collectors.toList());
-            }
-            return new ArrayList<>();
+            Map<String, String> files = filePath.act(listFiles);
+            return files.values().stream().map(File::new).collect(Collectors.toList());
         } catch (PatternSyntaxException e) {
             throw new SVNPublisherException("Invalid pattern file for " + filePattern);
         } catch (InterruptedException | IOException e) {
-            e.printStackTrace();
-            throw new SVNPublisherException("Invalid pattern file for " + e.getMessage());
+            // a scan that fails part way fails the item, rather than publish what it found so far
+            String message = "Can not scan " + filePath.getRemote() + " for " + filePattern + ": " + e.getMessage();
+            LOGGER.log(Level.WARNING, message, e);
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            throw new SVNPublisherException(message);
         }
     }
 
@@ -0,0 +1,123 @@
+package com.mtvi.plateng.subversion;
+
+import org.tmatesoft.svn.core.SVNException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the local, independent parts of a publish (scanning, hashing and
+ * copying) on a fixed number of threads. With a single worker everything runs
+ * on the calling thread. Anything touching the working copy or a repository
+ * session stays on the calling thread.
+ * <p>
+ * Given the timings of a publish, the CPU time each task takes on a worker
+ * thread is added to them; tasks run on the calling thread are left to the
+ * caller to measure.
+ *
+ * @author sekfung
+ */
+final class Workers implements AutoCloseable {
+
+    interface Task<S, T> {
+        T apply(S input) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final PhaseTimings timings;
+
+    Workers(int count) {
+        this(count, null);
+    }
+
+    Workers(int count, PhaseTimings timings) {
+        this.timings = timings;
+        if (count > 1) {
+            AtomicInteger index = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(count, r -> {
+                Thread t = new Thread(r, "SVN Publisher worker " + index.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            executor = null;
+        }
+    }
+
+    /**
+     * Apply the task to every input and return the results in input order.
+     */
+    <S, T> List<T> map(List<S> inputs, Task<S, T> task) throws SVNPublisherException {
+        List<T> results = new ArrayList<>(inputs.size());
+        if (executor == null || inputs.size() < 2) {
+            for (S input : inputs) {
+                results.add(call(task, input));
+            }
+            return results;
+        }
+        List<Future<T>> futures = new ArrayList<>(inputs.size());
+        for (S input : inputs) {
+            futures.add(executor.submit(() -> measured(task, input)));
+        }
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SVNPublisherException(e);
+        } catch (ExecutionException e) {
+            throw wrap(e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private <S, T> T measured(Task<S, T> task, S input) throws Exception {
+        if (timings == null) {
+            return task.apply(input);
+        }
+        long start = PhaseTimings.threadCpuTime();
+        try {
+            return task.apply(input);
+        } finally {
+            timings.addCpu(start);
+        }
+    }
+
+    private static <S, T> T call(Task<S, T> task, S input) throws SVNPublisherException {
+        try {
+            return task.apply(input);
+        } catch (Exception e) {
+            throw wrap(e);
+        }
+    }
+
+    private static SVNPublisherException wrap(Throwable t) {
+        if (t instanceof SVNPublisherException) {
+            return (SVNPublisherException) t;
+        }
+        if (t instanceof SVNException) {
+            return new SVNPublisherException("Error in repository " + t.getMessage());
+        }
+        if (t instanceof Exception) {
+            return new SVNPublisherException((Exception) t);
+        }
+        throw (Error) t;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
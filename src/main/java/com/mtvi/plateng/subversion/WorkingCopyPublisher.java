@@ -0,0 +1,372 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.EnvVars;
+import org.apache.commons.io.FileUtils;
+import org.tmatesoft.svn.core.SVNCommitInfo;
+import org.tmatesoft.svn.core.SVNDepth;
+import org.tmatesoft.svn.core.SVNException;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.util.SVNPathUtil;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
+import org.tmatesoft.svn.core.wc.SVNCommitClient;
+import org.tmatesoft.svn.core.wc.SVNCommitPacket;
+import org.tmatesoft.svn.core.wc.SVNConflictChoice;
+import org.tmatesoft.svn.core.wc.SVNInfo;
+import org.tmatesoft.svn.core.wc.SVNRevision;
+import org.tmatesoft.svn.core.wc.SVNStatusType;
+import org.tmatesoft.svn.core.wc.SVNWCClient;
+import org.tmatesoft.svn.core.wc.SVNWCUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Publishes through a sparse working copy kept in a directory of the
+ * workspace, {@value Constants#PLUGIN_NAME} unless the options name another. Runs on the
+ * agent that holds the workspace.
+ *
+ * @author sekfung
+ */
+class WorkingCopyPublisher {
+    private static final Logger LOGGER = Logger.getLogger(WorkingCopyPublisher.class.getName());
+
+    private final SVNClientManager manager;
+    private final SVNRepository repository;
+    private final SVNURL svnPath;
+    private final File workingCopy;
+    private final File baseLocalDir;
+    private final PublishOptions options;
+    private final EnvVars envVars;
+    private final PhaseTimings timings;
+
+    WorkingCopyPublisher(SVNClientManager manager, SVNRepository repository, File workspace, PublishOptions options, EnvVars envVars, PhaseTimings timings) {
+        this.manager = manager;
+        this.repository = repository;
+        this.svnPath = repository.getLocation();
+        this.workingCopy = new File(workspace, options.getWorkingCopyName());
+        this.baseLocalDir = workspace;
+        this.options = options;
+        this.envVars = envVars;
+        this.timings = timings;
+    }
+
+    /**
+     * @param matches the files matched by each item, relative to its local path.
+     */
+    PublishResult publish(List<ImportItem> items, List<List<File>> matches, String commitMessage) throws SVNPublisherException, IOException {
+        try {
+            Transfer transfer = new Transfer();
+            List<File> files = createWorkingCopy(items, matches, transfer);
+            if (files.isEmpty()) {
+                return PublishResult.nothingCommitted();
+            }
+            CommitRetry retry = new CommitRetry(options.getRetries());
+            long start = System.nanoTime();
+            try {
+                return new PublishResult(commit(commitMessage, retry), files.size(), retry.getAttempts()).withTransfer(transfer);
+            } finally {
+                timings.record(PhaseTimings.Phase.COMMIT, start);
+            }
+        } finally {
+            if (!options.isKeepWorkingCopy()) {
+                cleanWorkspace(workingCopy);
+            }
+        }
+    }
+
+    private List<File> createWorkingCopy(List<ImportItem> items, List<List<File>> matches, Transfer transfer) throws SVNPublisherException, IOException {
+        List<File> files = new ArrayList<>();
+        try (Workers workers = new Workers(options.getWorkers(), timings)) {
+            long start = System.nanoTime();
+            long revision = repository.getLatestRevision();
+            if (!options.isKeepWorkingCopy() || !reuse(revision)) {
+                cleanWorkspace(workingCopy);
+                // only the root itself, the item paths are grown into it one by one
+                SVNRevision rev = SVNRevision.create(revision);
+                manager.getUpdateClient().doCheckout(svnPath, workingCopy, rev, rev, SVNDepth.EMPTY, true);
+            }
+            start = timings.record(PhaseTimings.Phase.CHECKOUT, start);
+            RepositoryListing listing = new RepositoryListing(repository, revision);
+            Map<File, Staged> staging = new LinkedHashMap<>();
+            for (int i = 0; i < items.size(); i++) {
+                ImportItem item = items.get(i);
+                String path = DirectCommitter.normalize(item.getPath());
+                SVNNodeKind pathType = listing.kindOf(path);
+                start = timings.record(PhaseTimings.Phase.CHECK_PATH, start);
+                File dir = new File(workingCopy, path);
+                if (pathType == SVNNodeKind.NONE) {
+                    // not in the repository yet, only what it is added to is brought in
+                    String parent = SVNPathUtil.removeTail(path);
+                    while (!parent.isEmpty() && listing.kindOf(parent) == SVNNodeKind.NONE) {
+                        parent = SVNPathUtil.removeTail(parent);
+                    }
+                    File parentDir = new File(workingCopy, parent);
+                    if (!SVNWCUtil.isVersionedDirectory(parentDir)) {
+                        update(parentDir, revision, SVNDepth.EMPTY);
+                    }
+                } else {
+                    update(dir, revision, SVNDepth.FILES);
+                }
+                start = timings.record(PhaseTimings.Phase.CHECKOUT, start);
+                if (pathType == SVNNodeKind.NONE) {
+                    add(dir);
+                    start = timings.record(PhaseTimings.Phase.ADD, start);
+                }
+                File localPath = new File(baseLocalDir, item.getLocalPath());
+                for (File f : matches.get(i)) {
+                    File source = new File(localPath, f.getPath());
+                    File wc = new File(dir, f.getName());
+                    staging.put(wc, new Staged(i, SVNPathUtil.append(path, f.getName()), source, wc, pristineChecksum(source, wc), !options.isKeepWorkingCopy()));
+                }
+                start = timings.record(PhaseTimings.Phase.COPY, start);
+            }
+            // the copies run on the workers, the working copy itself is only touched from here
+            List<Staged> staged = new ArrayList<>(staging.values());
+            List<Boolean> copied = workers.map(staged, Staged::stage);
+            start = timings.record(PhaseTimings.Phase.COPY, start);
+            for (int i = 0; i < staged.size(); i++) {
+                Staged s = staged.get(i);
+                if (!copied.get(i)) {
+                    transfer.unchanged(s.item, s.path, s.source, s.digest);
+                    continue;
+                }
+                if (s.toAdd) {
+                    manager.getWCClient().doAdd(s.wc, false, false, false, SVNDepth.INFINITY, false, false, false);
+                }
+                transfer.add(s.item, s.path, s.source, s.source.length(), s.toAdd, s.digest, s.kind);
+                files.add(s.wc);
+            }
+            timings.record(PhaseTimings.Phase.ADD, start);
+        } catch (SVNException e) {
+            throw new SVNPublisherException("Error in repository " + e.getMessage());
+        }
+        return files;
+    }
+
+    /**
+     * Bring a working copy left by a previous build back to a pristine state at
+     * the given revision. Returns false when there is no usable copy, it points
+     * at another url or it can not be repaired, so a fresh checkout is needed.
+     */
+    private boolean reuse(long revision) {
+        if (!SVNWCUtil.isVersionedDirectory(workingCopy)) {
+            return false;
+        }
+        try {
+            SVNWCClient wcClient = manager.getWCClient();
+            SVNInfo info = wcClient.doInfo(workingCopy, SVNRevision.WORKING);
+            if (!svnPath.equals(info.getURL())) {
+                LOGGER.info("working copy points at " + info.getURL() + ", checking out again");
+                return false;
+            }
+            wcClient.doCleanup(workingCopy);
+            wcClient.doRevert(new File[]{workingCopy}, SVNDepth.INFINITY, null);
+            // files staged by an uncommitted publish are unversioned after the revert
+            manager.getStatusClient().doStatus(workingCopy, SVNRevision.WORKING, SVNDepth.INFINITY, false, false, true, false, status -> {
+                SVNStatusType type = status.getContentsStatus();
+                if (type == SVNStatusType.STATUS_UNVERSIONED || type == SVNStatusType.STATUS_IGNORED) {
+                    FileUtils.deleteQuietly(status.getFile());
+                }
+            }, null);
+            // unknown depth keeps the sparse depths of the existing copy
+            manager.getUpdateClient().doUpdate(new File[]{workingCopy}, SVNRevision.create(revision), SVNDepth.UNKNOWN, true, false, false);
+            return true;
+        } catch (SVNException e) {
+            LOGGER.info("can not reuse working copy: " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Grow the sparse working copy down to the given directory. The parents are
+     * brought in at depth empty and the directory itself at the given depth.
+     *
+     * @throws IOException when the update fails: the files of the directory
+     * would be staged as new ones over versioned files left unknown.
+     */
+    private void update(File dir, long revision, SVNDepth depth) throws IOException {
+        try {
+            manager.getUpdateClient().doUpdate(new File[]{dir}, SVNRevision.create(revision), depth, true, true, true);
+        } catch (SVNException e) {
+            throw new IOException("Can not update " + dir + " in the working copy: " + e.getMessage(), e);
+        }
+    }
+
+    private void add(File dir) throws SVNException, IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("mkdir file failed: " + dir.getName());
+        }
+        manager.getWCClient().doAdd(dir, false, true, false, SVNDepth.INFINITY, false, false, true);
+    }
+
+    /**
+     * The pristine checksum of the versioned file, only looked up when the
+     * sizes match since a size mismatch is enough to tell them apart.
+     */
+    private String pristineChecksum(File source, File wc) {
+        if (!wc.exists() || source.length() != wc.length()) {
+            return null;
+        }
+        try {
+            String checksum = manager.getWCClient().doInfo(wc, SVNRevision.WORKING).getChecksum();
+            return checksum == null || Checksums.algorithmOf(checksum) == null ? null : checksum;
+        } catch (SVNException e) {
+            LOGGER.log(Level.FINE, "no pristine checksum for " + wc, e);
+            return null;
+        }
+    }
+
+    private long commit(String commitMessage, CommitRetry retry) throws SVNPublisherException {
+        SVNCommitClient commit = manager.getCommitClient();
+        while (true) {
+            retry.begin();
+            try {
+                SVNCommitPacket packet = commit.doCollectCommitItems(new File[]{workingCopy}, false, true, SVNDepth.INFINITY, null);
+                SVNCommitInfo info = commit.doCommit(packet, false, commitMessage);
+                return info.getNewRevision();
+            } catch (SVNException e) {
+                if (!retry.backOff(e)) {
+                    throw new SVNPublisherException("Error in repository " + e.getMessage());
+                }
+                LOGGER.info("commit attempt " + retry.getAttempts() + " conflicted, retrying: " + e.getMessage());
+                catchUp();
+            }
+        }
+    }
+
+    /**
+     * Bring the working copy up to date with the commits that got in first.
+     * Where they changed the content of the published files, the published
+     * content wins. Where they added, deleted, moved or replaced a published
+     * path, a tree conflict, there is no content to prefer: the publish fails
+     * naming the paths rather than retrying.
+     */
+    private void catchUp() throws SVNPublisherException {
+        try {
+            manager.getUpdateClient().doUpdate(new File[]{workingCopy}, SVNRevision.HEAD, SVNDepth.UNKNOWN, true, false, false);
+            List<String> treeConflicts = treeConflicts();
+            if (!treeConflicts.isEmpty()) {
+                throw new SVNPublisherException("Tree conflict with a concurrent commit on " + String.join(", ", treeConflicts)
+                        + ": it added, deleted, moved or replaced the same paths");
+            }
+            manager.getWCClient().doResolve(workingCopy, SVNDepth.INFINITY, SVNConflictChoice.MINE_FULL);
+        } catch (SVNException e) {
+            throw new SVNPublisherException("Error in repository " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the paths of the working copy in a tree conflict, relative to its root.
+     */
+    private List<String> treeConflicts() throws SVNException {
+        List<String> paths = new ArrayList<>();
+        manager.getStatusClient().doStatus(workingCopy, SVNRevision.WORKING, SVNDepth.INFINITY, false, false, false, false, status -> {
+            if (status.getTreeConflict() != null) {
+                paths.add(workingCopy.toPath().relativize(status.getFile().toPath()).toString().replace(File.separatorChar, '/'));
+            }
+        }, null);
+        return paths;
+    }
+
+    private static void cleanWorkspace(File workspace) {
+        try {
+            if (!workspace.exists()) {
+                return;
+            }
+            FileUtils.deleteDirectory(workspace);
+        } catch (IOException e) {
+            LOGGER.info(e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A matched file on its way into the working copy.
+     */
+    private static final class Staged {
+        private final int item;
+        private final String path;
+        private final File source;
+        private final File wc;
+        private final boolean toAdd;
+        private final String checksum;
+        /**
+         * Whether the working file may be a hard link to the source: only when
+         * the working copy is deleted after the publish. A kept one would
+         * change along with the workspace file when the next build rewrites it
+         * in place, and hand the next publish a modified pristine file.
+         */
+        private final boolean link;
+        /**
+         * The MD5 checksum of the source, once staged, or of an unchanged
+         * source when the working copy keeps MD5 checksums.
+         */
+        private String digest;
+        /**
+         * How the source stands to compression, once staged.
+         */
+        private Compressibility.Kind kind;
+
+        Staged(int item, String path, File source, File wc, String checksum, boolean link) {
+            this.item = item;
+            this.path = path;
+            this.source = source;
+            this.wc = wc;
+            this.toAdd = !wc.exists();
+            this.checksum = checksum;
+            this.link = link;
+        }
+
+        /**
+         * Stage the source over the working file unless it is unchanged. With
+         * a pristine checksum to compare against, the source is hashed first
+         * so that an unchanged file is only read and never written.
+         *
+         * @return whether the file was staged.
+         */
+        boolean stage() throws IOException {
+            if (checksum == null) {
+                digest = put(Checksums.MD5);
+                kind = Compressibility.classify(source);
+                return true;
+            }
+            String algorithm = Checksums.algorithmOf(checksum);
+            digest = Checksums.digest(source, algorithm);
+            if (checksum.equalsIgnoreCase(digest)) {
+                if (!Checksums.MD5.equals(algorithm)) {
+                    // the manifest lists MD5 checksums only
+                    digest = null;
+                }
+                return false;
+            }
+            // the manifest lists MD5 checksums, whatever the working copy keeps
+            String md5 = put(Checksums.MD5.equals(algorithm) ? null : Checksums.MD5);
+            if (md5 != null) {
+                digest = md5;
+            }
+            kind = Compressibility.classify(source);
+            return true;
+        }
+
+        /**
+         * @param algorithm the checksum algorithm, or null when no checksum is needed.
+         * @return the hex checksum of the content, or null when none was asked for.
+         */
+        private String put(String algorithm) throws IOException {
+            if (link) {
+                return Staging.place(source, wc, algorithm);
+            }
+            // the copy is hashed either way, as it reads the source anyway
+            String copied = Staging.copy(source, wc, algorithm == null ? Checksums.MD5 : algorithm);
+            return algorithm == null ? null : copied;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.EnvVars;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class DirectCommitterTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private File workspace;
+    private SVNRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        FSRepositoryFactory.setup();
+        SVNURL url = SVNRepositoryFactory.createLocalRepository(tmp.newFolder("repository"), true, false);
+        repository = SVNRepositoryFactory.create(url);
+        workspace = tmp.newFolder("workspace");
+        write("seed/old.txt");
+        write("seed/index.html");
+        commit(Constants.DIRECT_MODE,
+                Arrays.asList(new ImportItem("*.txt", "releases", "seed", null, ""), new ImportItem("*.html", "releases/docs", "seed", null, "")),
+                Arrays.asList(files("old.txt"), files("index.html")));
+    }
+
+    @After
+    public void tearDown() {
+        repository.closeSession();
+    }
+
+    private void write(String path) throws IOException {
+        FileUtils.writeStringToFile(new File(workspace, path), path, StandardCharsets.UTF_8);
+    }
+
+    private static List<File> files(String... paths) {
+        List<File> files = new ArrayList<>();
+        for (String path : paths) {
+            files.add(new File(path));
+        }
+        return files;
+    }
+
+    private PublishResult commit(String mode, List<ImportItem> items, List<List<File>> matches) throws SVNPublisherException {
+        PublishOptions options = new PublishOptions();
+        options.setMode(mode);
+        PrintStream logger = new PrintStream(log, true);
+        return new DirectCommitter(repository, workspace, options, new EnvVars(), new PhaseTimings(), logger)
+                .commit(items, matches, "publish");
+    }
+
+    private boolean exists(String path) throws Exception {
+        return repository.checkPath(path, -1) != SVNNodeKind.NONE;
+    }
+
+    private String log() {
+        return new String(log.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void mirrorDeletesWhatWasNotMatched() throws Exception {
+        write("dist/app.zip");
+        PublishResult result = commit(Constants.MIRROR_MODE,
+                Collections.singletonList(new ImportItem("**", "releases", "dist", null, "")),
+                Collections.singletonList(files("app.zip")));
+        assertTrue(result.isCommitted());
+        assertTrue(exists("releases/app.zip"));
+        assertFalse(exists("releases/old.txt"));
+        assertFalse(exists("releases/docs"));
+        assertEquals(1, result.getFilesAdded());
+        assertEquals(2, result.getFilesDeleted());
+        assertEquals(3, result.getChangedFiles());
+    }
+
+    @Test
+    public void itemMatchingNothingDeletesNothing() throws Exception {
+        PublishResult result = commit(Constants.MIRROR_MODE,
+                Collections.singletonList(new ImportItem("**", "releases", "dist", null, "")),
+                Collections.singletonList(files()));
+        assertFalse(result.isCommitted());
+        assertTrue(exists("releases/old.txt"));
+        assertTrue(exists("releases/docs/index.html"));
+        assertTrue(log(), log().contains("Nothing matched for releases"));
+    }
+
+    @Test
+    public void itemMatchingNothingInsideAMirroredTargetKeepsItsTarget() throws Exception {
+        write("dist/app.zip");
+        PublishResult result = commit(Constants.MIRROR_MODE,
+                Arrays.asList(new ImportItem("**", "releases", "dist", null, ""), new ImportItem("**", "releases/docs", "docs", null, "")),
+                Arrays.asList(files("app.zip"), files()));
+        assertTrue(result.isCommitted());
+        assertFalse(exists("releases/old.txt"));
+        assertTrue(exists("releases/docs/index.html"));
+    }
+
+    @Test
+    public void itemWithoutPathIsRefused() throws Exception {
+        write("dist/app.zip");
+        try {
+            commit(Constants.MIRROR_MODE,
+                    Collections.singletonList(new ImportItem("**", "", "dist", null, "")),
+                    Collections.singletonList(files("app.zip")));
+            fail("mirrored onto the publish location");
+        } catch (SVNPublisherException expected) {
+            assertTrue(log(), log().contains("Mirror mode needs a path"));
+        }
+        assertEquals(1, repository.getLatestRevision());
+        assertTrue(exists("releases/old.txt"));
+    }
+}
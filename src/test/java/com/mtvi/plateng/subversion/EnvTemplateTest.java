@@ -0,0 +1,58 @@
+package com.mtvi.plateng.subversion;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class EnvTemplateTest {
+
+    private static Map<String, String> vars(String... pairs) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            map.put(pairs[i], pairs[i + 1]);
+        }
+        return map;
+    }
+
+    @Test
+    public void expandsEveryToken() {
+        EnvTemplate template = EnvTemplate.parse("releases/${JOB}/${BUILD_NUMBER}-${JOB}.zip");
+        assertEquals("releases/app/42-app.zip", template.expand(vars("JOB", "app", "BUILD_NUMBER", "42")));
+    }
+
+    @Test
+    public void valuesAreTrimmed() {
+        assertEquals("v1.0", EnvTemplate.parse("v${VERSION}").expand(vars("VERSION", " 1.0 ")));
+    }
+
+    @Test
+    public void unknownTokensAreLeftAsTheyAre() {
+        assertEquals("${MISSING}/app", EnvTemplate.parse("${MISSING}/${JOB}").expand(vars("JOB", "app")));
+    }
+
+    @Test
+    public void textWithoutTokens() {
+        EnvTemplate template = EnvTemplate.parse("plain/path");
+        assertFalse(template.hasTokens());
+        assertEquals("plain/path", template.expand(Collections.emptyMap()));
+    }
+
+    @Test
+    public void emptyAndUnclosedTokensAreText() {
+        assertEquals("${}/app", EnvTemplate.parse("${}/${JOB}").expand(vars("JOB", "app")));
+        assertEquals("app/${JOB", EnvTemplate.parse("${JOB}/${JOB").expand(vars("JOB", "app")));
+        assertTrue(EnvTemplate.parse("${JOB}/${JOB").hasTokens());
+    }
+
+    @Test
+    public void parsedTemplatesAreCached() {
+        assertSame(EnvTemplate.of("cached/${JOB}"), EnvTemplate.of("cached/${JOB}"));
+    }
+}
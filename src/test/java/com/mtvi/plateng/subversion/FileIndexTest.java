@@ -0,0 +1,104 @@
+package com.mtvi.plateng.subversion;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FileIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File root;
+    private File indexDir;
+
+    @Before
+    public void setUp() throws IOException {
+        root = tmp.newFolder("workspace");
+        indexDir = tmp.newFolder("index");
+        write("dist/app.zip");
+        write("dist/lib/core.jar");
+        write("dist/tmp/partial.zip");
+        write("docs/index.html");
+        write("README.txt");
+    }
+
+    private void write(String path) throws IOException {
+        FileUtils.writeStringToFile(new File(root, path), path, StandardCharsets.UTF_8);
+    }
+
+    private List<String> scan(File index, String includes, String excludes) throws IOException {
+        List<String> matched = new ArrayList<>(FileIndex.scan(root, index, new ScanPatterns(includes, excludes, true, true), false));
+        Collections.sort(matched);
+        return matched;
+    }
+
+    @Test
+    public void matchesLikeAWalkWithoutIndex() throws IOException {
+        for (String includes : Arrays.asList("**", "dist/**/*.zip", "dist/**, docs/*.html", "*.txt")) {
+            assertEquals(includes, scan(null, includes, "**/tmp/**"), scan(indexDir, includes, "**/tmp/**"));
+        }
+        assertEquals(Arrays.asList("dist/app.zip", "dist/lib/core.jar"), scan(indexDir, "dist/**", "**/tmp/**"));
+    }
+
+    @Test
+    public void keepsTheIndexBetweenScans() throws IOException {
+        scan(indexDir, "**", "");
+        String[] stored = indexDir.list();
+        assertEquals(1, stored.length);
+        assertEquals(scan(null, "**", ""), scan(indexDir, "**", ""));
+    }
+
+    @Test
+    public void rescanSeesAddedAndRemovedFiles() throws IOException {
+        assertEquals(Arrays.asList("dist/app.zip", "dist/lib/core.jar", "dist/tmp/partial.zip"), scan(indexDir, "dist/**", ""));
+        write("dist/lib/extra.jar");
+        FileUtils.deleteDirectory(new File(root, "dist/tmp"));
+        assertEquals(Arrays.asList("dist/app.zip", "dist/lib/core.jar", "dist/lib/extra.jar"), scan(indexDir, "dist/**", ""));
+    }
+
+    @Test
+    public void sharedByItemsWithOtherPatterns() throws IOException {
+        assertEquals(Collections.singletonList("docs/index.html"), scan(indexDir, "docs/*.html", ""));
+        assertEquals(Collections.singletonList("dist/lib/core.jar"), scan(indexDir, "**/*.jar", ""));
+        assertTrue(scan(indexDir, "missing/**", "").isEmpty());
+    }
+
+    @Test
+    public void linksBetweenSiblingsDoNotLoop() throws IOException {
+        Path a = new File(root, "loop/a").toPath();
+        Path b = new File(root, "loop/b").toPath();
+        write("loop/a/x.txt");
+        write("loop/b/y.txt");
+        try {
+            Files.createSymbolicLink(a.resolve("l"), Paths.get("../b"));
+            Files.createSymbolicLink(b.resolve("l"), Paths.get("../a"));
+        } catch (IOException | UnsupportedOperationException e) {
+            Assume.assumeNoException(e);
+        }
+        List<String> expected = Arrays.asList("loop/a/l/y.txt", "loop/a/x.txt", "loop/b/l/x.txt", "loop/b/y.txt");
+        ScanPatterns patterns = new ScanPatterns("loop/**", "", true, true);
+        for (File index : Arrays.asList(null, indexDir)) {
+            List<String> matched = new ArrayList<>(FileIndex.scan(root, index, patterns, true));
+            Collections.sort(matched);
+            assertEquals(expected, matched);
+        }
+    }
+}
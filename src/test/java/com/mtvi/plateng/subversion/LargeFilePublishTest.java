@@ -0,0 +1,153 @@
+package com.mtvi.plateng.subversion;
+
+import hudson.EnvVars;
+import hudson.util.StreamTaskListener;
+import org.apache.commons.io.FileUtils;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.tmatesoft.svn.core.SVNDirEntry;
+import org.tmatesoft.svn.core.SVNProperties;
+import org.tmatesoft.svn.core.SVNProperty;
+import org.tmatesoft.svn.core.SVNURL;
+import org.tmatesoft.svn.core.internal.io.fs.FSRepositoryFactory;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.io.SVNRepositoryFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Publishes a file several times larger than the heap of a JVM forked with a
+ * small {@code -Xmx}, into a local FSFS repository. The publish is set up for
+ * a working copy and the file is over the streaming threshold, so it has to
+ * switch to a direct commit. Holding the content in memory anywhere on the
+ * way either runs the forked JVM out of memory or takes its peak heap over
+ * {@link #PEAK_HEAP}.
+ */
+public class LargeFilePublishTest {
+    private static final String HEAP = "-Xmx64m";
+    private static final long SIZE = 160L * 1024 * 1024;
+    private static final long STREAMING_THRESHOLD = 16L * 1024 * 1024;
+    /**
+     * The most heap the forked publish may use, summing the peaks of the heap
+     * pools. The young generation of the serial collector takes about a third
+     * of the heap, which leaves the old one well short of the content.
+     */
+    private static final long PEAK_HEAP = 48L * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void streamsAFileLargerThanTheHeap() throws Exception {
+        FSRepositoryFactory.setup();
+        SVNURL url = SVNRepositoryFactory.createLocalRepository(tmp.newFolder("repository"), true, false);
+        File workspace = tmp.newFolder("workspace");
+        File payload = new File(workspace, "dist/payload.bin");
+        write(payload, SIZE);
+
+        File log = new File(tmp.getRoot(), "publish.log");
+        File heap = new File(tmp.getRoot(), "heap.properties");
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process process = new ProcessBuilder(java, HEAP, "-XX:+UseSerialGC", "-cp", System.getProperty("java.class.path"),
+                LargeFilePublishTest.class.getName(), url.toString(), workspace.getPath(), heap.getPath())
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        assertTrue("the publish did not finish", process.waitFor(5, TimeUnit.MINUTES));
+        String output = FileUtils.readFileToString(log, StandardCharsets.UTF_8);
+        assertEquals(output, 0, process.exitValue());
+
+        Properties measured = new Properties();
+        try (InputStream in = new FileInputStream(heap)) {
+            measured.load(in);
+        }
+        Assume.assumeTrue("the forked heap is not smaller than the payload", Long.parseLong(measured.getProperty("max")) < SIZE);
+        long peak = Long.parseLong(measured.getProperty("peak"));
+        assertTrue("peak heap of " + (peak >> 20) + " MB", peak <= PEAK_HEAP);
+        assertTrue(output, output.contains("with a direct commit instead of the working copy"));
+        assertFalse(new File(workspace, Constants.PLUGIN_NAME).exists());
+
+        SVNRepository repository = SVNRepositoryFactory.create(url);
+        try {
+            SVNDirEntry entry = repository.info("releases/payload.bin", -1);
+            assertNotNull(entry);
+            assertEquals(SIZE, entry.getSize());
+            SVNProperties properties = new SVNProperties();
+            repository.getFile("releases/payload.bin", -1, properties, null);
+            assertEquals(Checksums.digest(payload, Checksums.MD5), properties.getStringValue(SVNProperty.CHECKSUM));
+        } finally {
+            repository.closeSession();
+        }
+    }
+
+    private static void write(File file, long size) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        Random random = new Random(42);
+        byte[] block = new byte[1024 * 1024];
+        try (OutputStream out = new FileOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                random.nextBytes(block);
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+    }
+
+    /**
+     * The forked publish: the publish task of a working copy publish with a
+     * streaming threshold, run the way an agent runs it. The heap it was
+     * given and the peak it used are written for the test to check.
+     */
+    public static void main(String[] args) throws Throwable {
+        File workspace = new File(args[1]);
+        Properties measured = new Properties();
+        long max = Runtime.getRuntime().maxMemory();
+        measured.setProperty("max", String.valueOf(max));
+        if (max < new File(workspace, "dist/payload.bin").length()) {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                pool.resetPeakUsage();
+            }
+            FSRepositoryFactory.setup();
+            PublishOptions options = new PublishOptions();
+            options.setMode(Constants.WORKING_COPY_MODE);
+            options.setStreamingThreshold(STREAMING_THRESHOLD);
+            ImportItem item = new ImportItem("*.bin", "releases", "dist", null, "");
+            // a file: repository asks for no credentials
+            PublishResult result = new PublishTask(SVNURL.parseURIEncoded(args[0]), null, Collections.singletonList(item), new EnvVars(),
+                    options, workspace, "large file", new StreamTaskListener(System.out, StandardCharsets.UTF_8)).call();
+            if (!result.isCommitted()) {
+                System.exit(2);
+            }
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) {
+                    peak += pool.getPeakUsage().getUsed();
+                }
+            }
+            measured.setProperty("peak", String.valueOf(peak));
+        }
+        try (OutputStream out = new FileOutputStream(args[2])) {
+            measured.store(out, null);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,71 @@
+package com.mtvi.plateng.subversion;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanPatternsTest {
+
+    @Test
+    public void includesAndExcludes() {
+        ScanPatterns patterns = new ScanPatterns("dist/**/*.zip, docs/*.html", "**/tmp/**", false, true);
+        assertTrue(patterns.isIncluded("dist/app.zip"));
+        assertTrue(patterns.isIncluded("dist/lib/app.zip"));
+        assertTrue(patterns.isIncluded("docs/index.html"));
+        assertFalse(patterns.isIncluded("docs/api/index.html"));
+        assertFalse(patterns.isIncluded("src/app.zip"));
+        assertFalse(patterns.isIncluded("dist/tmp/app.zip"));
+    }
+
+    @Test
+    public void noIncludesMatchEverything() {
+        assertTrue(new ScanPatterns("", "", false, true).isIncluded("any/where/file.txt"));
+        assertTrue(new ScanPatterns(null, null, false, true).isIncluded("file.txt"));
+    }
+
+    @Test
+    public void trailingSlashMeansTheWholeTree() {
+        ScanPatterns patterns = new ScanPatterns("dist/", "dist/cache/", false, true);
+        assertTrue(patterns.isIncluded("dist/a/b.txt"));
+        assertFalse(patterns.isIncluded("dist/cache/b.txt"));
+    }
+
+    @Test
+    public void defaultExcludes() {
+        assertFalse(new ScanPatterns("**", "", true, true).isIncluded("dist/.svn/entries"));
+        assertTrue(new ScanPatterns("**", "", false, true).isIncluded("dist/.svn/entries"));
+    }
+
+    @Test
+    public void caseInsensitiveMatching() {
+        assertTrue(new ScanPatterns("DIST/*.ZIP", "", false, false).isIncluded("dist/app.zip"));
+        assertFalse(new ScanPatterns("DIST/*.ZIP", "", false, true).isIncluded("dist/app.zip"));
+    }
+
+    @Test
+    public void walksOnlyWhereAnIncludeCanMatch() {
+        ScanPatterns patterns = new ScanPatterns("dist/**/*.zip", "dist/tmp/**", false, true);
+        assertTrue(patterns.isWalked("dist"));
+        assertTrue(patterns.isWalked("dist/lib"));
+        assertFalse(patterns.isWalked("src"));
+        assertFalse(patterns.isWalked("dist/tmp"));
+    }
+
+    @Test
+    public void startsFromTheOutermostFixedPrefixes() {
+        ScanPatterns patterns = new ScanPatterns("dist/**/*.zip, dist/lib/*.jar, docs/*.html", "", false, true);
+        assertEquals(Arrays.asList("dist", "docs"), patterns.startDirs());
+    }
+
+    @Test
+    public void startsFromTheRootWhenAPrefixCanNotBeResolved() {
+        assertEquals(Collections.singletonList(""), new ScanPatterns("dist/*.zip, **/*.jar", "", false, true).startDirs());
+        assertEquals(Collections.singletonList(""), new ScanPatterns("*.zip", "", false, true).startDirs());
+        assertEquals(Collections.singletonList(""), new ScanPatterns("dist/*.zip", "", false, false).startDirs());
+    }
+}
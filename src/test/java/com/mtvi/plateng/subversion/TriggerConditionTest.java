@@ -0,0 +1,135 @@
+package com.mtvi.plateng.subversion;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TriggerConditionTest {
+
+    private final List<String> warnings = new ArrayList<>();
+
+    private boolean holds(String trigger, String... vars) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < vars.length; i += 2) {
+            map.put(vars[i], vars[i + 1]);
+        }
+        return TriggerCondition.compile(trigger, warnings::add).test(map);
+    }
+
+    private void assertInvalid(String trigger) {
+        try {
+            TriggerCondition.compile(trigger, warnings::add);
+            fail("parsed " + trigger);
+        } catch (IllegalArgumentException expected) {
+            // reported in the build log, the item is skipped
+        }
+    }
+
+    @Test
+    public void emptyTriggerAlwaysHolds() {
+        assertSame(TriggerCondition.ALWAYS, TriggerCondition.compile(null, warnings::add));
+        assertSame(TriggerCondition.ALWAYS, TriggerCondition.compile("  ", warnings::add));
+    }
+
+    @Test
+    public void historicPairsMustAllHold() {
+        assertTrue(holds("ENV=prod,DEPLOY=true", "ENV", "prod", "DEPLOY", "true"));
+        assertFalse(holds("ENV=prod,DEPLOY=true", "ENV", "prod", "DEPLOY", "false"));
+        assertFalse(holds("ENV=prod", "OTHER", "prod"));
+        assertTrue(holds("ENV=prod,", "ENV", "prod"));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void bareValuesKeepTheirSpaces() {
+        assertTrue(holds("MSG=hello world", "MSG", "hello world"));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void operators() {
+        assertTrue(holds("ENV == prod", "ENV", "prod"));
+        assertTrue(holds("ENV != prod", "ENV", "test"));
+        assertTrue(holds("ENV != prod"));
+        assertTrue(holds("VERSION =~ 1\\.[0-9]+", "VERSION", "1.12"));
+        assertFalse(holds("VERSION =~ 1\\.[0-9]+", "VERSION", "1.12-SNAPSHOT"));
+        assertTrue(holds("VERSION !~ .*-SNAPSHOT", "VERSION", "1.12"));
+        assertTrue(holds("ENV in (prod, staging)", "ENV", "staging"));
+        assertFalse(holds("ENV in (prod, staging)", "ENV", "test"));
+        assertTrue(holds("ENV not in (prod, staging)", "ENV", "test"));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void andBindsTighterThanOr() {
+        String trigger = "A == 1 || B == 1 && C == 1";
+        assertTrue(holds(trigger, "A", "1"));
+        assertFalse(holds(trigger, "B", "1"));
+        assertTrue(holds(trigger, "B", "1", "C", "1"));
+        assertFalse(holds("(A == 1 || B == 1) && C == 1", "A", "1"));
+        assertTrue(holds("A == 1 or B == 1 and C == 1", "A", "1"));
+    }
+
+    @Test
+    public void negation() {
+        assertTrue(holds("!A == 1", "A", "2"));
+        assertFalse(holds("not (A == 1 || B == 1)", "B", "1"));
+    }
+
+    @Test
+    public void quotedValues() {
+        assertTrue(holds("MSG == 'a, b'", "MSG", "a, b"));
+        assertTrue(holds("MSG == \"f(x)\" && A == 1", "MSG", "f(x)", "A", "1"));
+        assertTrue(holds("MSG in ('a,b', c)", "MSG", "a,b"));
+    }
+
+    @Test
+    public void historicPairsReadDifferentlyKeepTheirLiteralMeaning() {
+        assertTrue(holds("A=~x", "A", "~x"));
+        assertFalse(holds("A=~.*", "A", "anything"));
+        assertTrue(holds("B=f(1)", "B", "f(1)"));
+        assertTrue(holds("A='x'", "A", "'x'"));
+        assertEquals(4, warnings.size());
+    }
+
+    @Test
+    public void historicPairsStopAtAnEmptyPart() {
+        assertTrue(holds("A=1,,B=2", "A", "1"));
+        assertEquals(1, warnings.size());
+    }
+
+    @Test
+    public void spaceBeforeTheOperatorAsksForTheNewReading() {
+        assertTrue(holds("A =~ .*", "A", "anything"));
+        assertTrue(holds("(A=~.*)", "A", "anything"));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void spacesAroundKeysAreIgnored() {
+        // the historic reading looked up " B" and never held
+        assertTrue(holds("A=1 , B=2", "A", "1", "B", "2"));
+        assertFalse(holds("A=1 , B=2", "A", "1", "B", "3"));
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void malformedTriggers() {
+        assertInvalid("A");
+        assertInvalid("A == 1 ||");
+        assertInvalid("(A == 1");
+        assertInvalid("A in (1, 2");
+        assertInvalid("A == 'open");
+        assertInvalid("A =~ [");
+        assertInvalid("A not 1");
+    }
+}